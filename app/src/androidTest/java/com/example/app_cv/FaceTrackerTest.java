@@ -0,0 +1,181 @@
+package com.example.app_cv;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Track association, birth, death and correction of FaceTracker on synthetic detections,
+ * on a device since the Kalman filter needs the native OpenCV library. The frames are blank,
+ * so no flow points are found and only the detections move the tracks.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FaceTrackerTest {
+
+    static {
+        System.loadLibrary("opencv_java3");
+    }
+
+    private static final Rect FACE_A = new Rect(50, 50, 60, 60);
+    private static final Rect FACE_B = new Rect(200, 100, 60, 60);
+
+    private Mat mGray;
+    private FaceTracker mTracker;
+
+    @Before
+    public void setUp() {
+        mGray = Mat.zeros(240, 320, CvType.CV_8UC1);
+        mTracker = new FaceTracker(3, 2, 0f);
+    }
+
+    @After
+    public void tearDown() {
+        mTracker.clear();
+        mGray.release();
+    }
+
+    @Test
+    public void iou_ofRects() {
+        assertEquals(1, FaceTracker.iou(FACE_A, FACE_A), 1e-9);
+        assertEquals(0, FaceTracker.iou(FACE_A, FACE_B), 1e-9);
+        // half of each box overlaps, 50 / 150
+        assertEquals(1.0 / 3, FaceTracker.iou(new Rect(0, 0, 10, 10), new Rect(5, 0, 10, 10)), 1e-9);
+    }
+
+    @Test
+    public void birth_everyDetectionStartsATrack() {
+        assertTrue(mTracker.needsDetection());
+        List<FaceTracker.Track> tracks = mTracker.update(mGray, new Rect[]{FACE_A, FACE_B});
+
+        assertEquals(Arrays.asList(1, 2), ids(tracks));
+        assertEquals(FACE_A, tracks.get(0).rect);
+        assertEquals(FACE_B, tracks.get(1).rect);
+        assertEquals(1, tracks.get(0).hits);
+    }
+
+    @Test
+    public void association_keepsIdsWhateverTheDetectionOrder() {
+        mTracker.update(mGray, new Rect[]{FACE_A, FACE_B});
+        List<FaceTracker.Track> tracks = mTracker.update(mGray,
+                new Rect[]{shift(FACE_B, 4, 4), shift(FACE_A, 4, 4)});
+
+        assertEquals(Arrays.asList(1, 2), ids(tracks));
+        FaceTracker.Track a = track(1);
+        assertEquals(2, a.hits);
+        assertEquals(0, a.misses);
+        // pulled towards the detection by the correction
+        assertTrue(a.rect.x > FACE_A.x && a.rect.x <= FACE_A.x + 4);
+        assertTrue(track(2).rect.x > FACE_B.x && track(2).rect.x <= FACE_B.x + 4);
+    }
+
+    @Test
+    public void association_detectionBelowMatchIouStartsANewTrack() {
+        mTracker.update(mGray, new Rect[]{FACE_A});
+        // 20 of 60 columns overlap, an IoU of 0.2
+        List<FaceTracker.Track> tracks = mTracker.update(mGray, new Rect[]{shift(FACE_A, 40, 0)});
+
+        assertEquals(Arrays.asList(1, 2), ids(tracks));
+        assertEquals(1, track(1).misses);
+        assertEquals(0, track(2).misses);
+    }
+
+    @Test
+    public void death_afterMaxMissedPasses() {
+        mTracker.update(mGray, new Rect[]{FACE_A, FACE_B});
+        mTracker.update(mGray, new Rect[]{FACE_B});
+        assertEquals(1, track(1).misses);
+
+        // frames without a detection pass are not misses
+        mTracker.update(mGray, null);
+        assertEquals(Arrays.asList(1, 2), ids(mTracker.getTracks()));
+        assertEquals(1, track(1).misses);
+
+        List<FaceTracker.Track> tracks = mTracker.update(mGray, new Rect[]{FACE_B});
+        assertEquals(Arrays.asList(2), ids(tracks));
+    }
+
+    @Test
+    public void death_idIsNotReused() {
+        mTracker.update(mGray, new Rect[]{FACE_A});
+        mTracker.update(mGray, new Rect[0]);
+        assertEquals(1, track(1).misses);
+        mTracker.update(mGray, new Rect[0]);
+        assertTrue(mTracker.getTracks().isEmpty());
+
+        List<FaceTracker.Track> tracks = mTracker.update(mGray, new Rect[]{FACE_A});
+        assertEquals(Arrays.asList(2), ids(tracks));
+    }
+
+    @Test
+    public void correction_followsAMovingFaceAndPredictsBetweenPasses() {
+        mTracker.update(mGray, new Rect[]{FACE_A});
+        int previous = FACE_A.x;
+        for (int step = 1; step <= 5; step++) {
+            Rect detection = shift(FACE_A, 10 * step, 0);
+            List<FaceTracker.Track> tracks = mTracker.update(mGray, new Rect[]{detection});
+            assertEquals(Arrays.asList(1), ids(tracks));
+            // one correction per frame, between the prediction and the detection
+            int x = tracks.get(0).rect.x;
+            assertTrue("step " + step + ": " + x, x > previous && x <= detection.x);
+            previous = x;
+        }
+
+        // without a detection the prediction carries the learnt velocity on
+        mTracker.update(mGray, null);
+        assertTrue(track(1).rect.x > previous);
+        assertEquals(0, track(1).misses);
+    }
+
+    @Test
+    public void correction_settlesOnAStaticFace() {
+        for (int i = 0; i < 5; i++)
+            mTracker.update(mGray, new Rect[]{FACE_A});
+
+        assertEquals(Arrays.asList(1), ids(mTracker.getTracks()));
+        assertEquals(FACE_A, track(1).rect);
+        assertEquals(5, track(1).hits);
+    }
+
+    @Test
+    public void needsDetection_everyRedetectInterval() {
+        mTracker.update(mGray, new Rect[]{FACE_A});
+        assertFalse(mTracker.needsDetection());
+        mTracker.update(mGray, null);
+        mTracker.update(mGray, null);
+        assertFalse(mTracker.needsDetection());
+        mTracker.update(mGray, null);
+        assertTrue(mTracker.needsDetection());
+    }
+
+    private FaceTracker.Track track(int id) {
+        for (FaceTracker.Track track : mTracker.getTracks()) {
+            if (track.id == id)
+                return track;
+        }
+        fail("no track " + id);
+        return null;
+    }
+
+    private static List<Integer> ids(List<FaceTracker.Track> tracks) {
+        List<Integer> ids = new ArrayList<>(tracks.size());
+        for (FaceTracker.Track track : tracks)
+            ids.add(track.id);
+        return ids;
+    }
+
+    private static Rect shift(Rect r, int dx, int dy) {
+        return new Rect(r.x + dx, r.y + dy, r.width, r.height);
+    }
+}
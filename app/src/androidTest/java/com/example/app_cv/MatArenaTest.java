@@ -0,0 +1,39 @@
+package com.example.app_cv;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import static org.junit.Assert.*;
+
+/**
+ * Leak detection of MatArena, on a device since the arena needs the native OpenCV library.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MatArenaTest {
+
+    static {
+        System.loadLibrary("opencv_java3");
+    }
+
+    @Test
+    public void endFrame_reportsMatNotGivenBack() {
+        MatArena arena = new MatArena("test", true);
+        Mat returned = arena.borrow(8, 8, CvType.CV_8UC1);
+        arena.giveBack(returned);
+        arena.borrow(8, 8, CvType.CV_8UC1);
+        try {
+            arena.endFrame();
+            fail("leak not reported");
+        } catch (IllegalStateException e) {
+            assertEquals("1 Mats still borrowed from test", e.getMessage());
+            // the borrow site of the leaked Mat
+            assertEquals("borrowed from arena test", e.getCause().getMessage());
+        }
+        // the leaked Mat was reclaimed all the same
+        arena.release();
+    }
+}
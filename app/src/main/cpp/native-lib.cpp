@@ -1,5 +1,10 @@
 #include <jni.h>
 #include <string>
+#include <cstring>
+#include <cstdint>
+#include <algorithm>
+#include <android/native_window.h>
+#include <android/native_window_jni.h>
 
 extern "C" JNIEXPORT jstring JNICALL
 Java_com_example_app_1cv_MainActivity_stringFromJNI(
@@ -8,3 +13,75 @@ Java_com_example_app_1cv_MainActivity_stringFromJNI(
     std::string hello = "Hello from C++";
     return env->NewStringUTF(hello.c_str());
 }
+
+// ---------------- SurfaceFrameRenderer ----------------
+
+extern "C" JNIEXPORT jlong JNICALL
+Java_com_example_app_1cv_SurfaceFrameRenderer_nativeAcquire(
+        JNIEnv* env,
+        jclass /* clazz */,
+        jobject surface,
+        jint width,
+        jint height) {
+    ANativeWindow* window = ANativeWindow_fromSurface(env, surface);
+    if (window == nullptr)
+        return 0;
+    if (ANativeWindow_setBuffersGeometry(window, width, height, WINDOW_FORMAT_RGBA_8888) != 0) {
+        ANativeWindow_release(window);
+        return 0;
+    }
+    return reinterpret_cast<jlong>(window);
+}
+
+// Copies an RGBA image to (dstX, dstY) of the next window buffer, clipped to the buffer,
+// and clears everything around it.
+extern "C" JNIEXPORT jboolean JNICALL
+Java_com_example_app_1cv_SurfaceFrameRenderer_nativeRender(
+        JNIEnv* /* env */,
+        jclass /* clazz */,
+        jlong handle,
+        jlong data,
+        jint step,
+        jint cols,
+        jint rows,
+        jint dstX,
+        jint dstY) {
+    ANativeWindow* window = reinterpret_cast<ANativeWindow*>(handle);
+    ANativeWindow_Buffer buffer;
+    if (ANativeWindow_lock(window, &buffer, nullptr) != 0)
+        return JNI_FALSE;
+
+    const int bpp = 4;
+    uint8_t* dst = static_cast<uint8_t*>(buffer.bits);
+    const int dstStride = buffer.stride * bpp;
+    const uint8_t* src = reinterpret_cast<const uint8_t*>(data);
+
+    const int x0 = std::max(0, dstX);
+    const int y0 = std::max(0, dstY);
+    const int x1 = std::min(buffer.width, dstX + cols);
+    const int y1 = std::min(buffer.height, dstY + rows);
+
+    for (int y = 0; y < buffer.height; y++) {
+        uint8_t* row = dst + y * dstStride;
+        if (y < y0 || y >= y1 || x1 <= x0) {
+            memset(row, 0, buffer.width * bpp);
+            continue;
+        }
+        if (x0 > 0)
+            memset(row, 0, x0 * bpp);
+        memcpy(row + x0 * bpp, src + (y - dstY) * step + (x0 - dstX) * bpp, (x1 - x0) * bpp);
+        if (x1 < buffer.width)
+            memset(row + x1 * bpp, 0, (buffer.width - x1) * bpp);
+    }
+
+    ANativeWindow_unlockAndPost(window);
+    return JNI_TRUE;
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_example_app_1cv_SurfaceFrameRenderer_nativeRelease(
+        JNIEnv* /* env */,
+        jclass /* clazz */,
+        jlong handle) {
+    ANativeWindow_release(reinterpret_cast<ANativeWindow*>(handle));
+}
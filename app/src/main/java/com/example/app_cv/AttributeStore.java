@@ -0,0 +1,151 @@
+package com.example.app_cv;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Per-track attribute results. Each attribute keeps an exponentially smoothed softmax
+ * vector per track and is re-inferred on its own schedule, so a steady face costs a DNN
+ * call every few frames for emotion and only rarely for age and gender.
+ *
+ * A small gray thumbnail of the face is kept from the last appearance change; when the
+ * current face differs from it by more than the appearance threshold every attribute of that
+ * track becomes due at once (new person under an old track, strong pose or lighting change)
+ * and stays due until it is actually inferred again, even if its head skips a few frames.
+ *
+ * Not thread-safe; meant to be driven by the infer stage only.
+ */
+public class AttributeStore {
+
+    public static final int AGE = 0;
+    public static final int GENDER = 1;
+    public static final int EMOTION = 2;
+    private static final int ATTRIBUTE_COUNT = 3;
+
+    private static final Size THUMBNAIL_SIZE = new Size(16, 16);
+
+    private static class Entry {
+        final float[][] smoothed = new float[ATTRIBUTE_COUNT][];
+        final long[] lastRefresh = new long[ATTRIBUTE_COUNT];
+        final Mat reference = new Mat();
+        // set on an appearance change, cleared only by update() of that attribute
+        final boolean[] forced = new boolean[ATTRIBUTE_COUNT];
+    }
+
+    private final int[] mRefreshIntervals;
+    private final float[] mSmoothing;
+    private final double mAppearanceThreshold;
+    private final Map<Integer, Entry> mEntries = new HashMap<>();
+    private final Mat mThumbnail = new Mat();
+    private long mFrame = 0;
+
+    /**
+     * @param refreshIntervals - frames between two inferences, indexed by AGE, GENDER, EMOTION
+     * @param smoothing - weight of a new result in the running average, indexed the same way
+     * @param appearanceThreshold - mean absolute gray difference of the thumbnail that forces a refresh
+     */
+    public AttributeStore(int[] refreshIntervals, float[] smoothing, double appearanceThreshold) {
+        mRefreshIntervals = refreshIntervals;
+        mSmoothing = smoothing;
+        mAppearanceThreshold = appearanceThreshold;
+    }
+
+    /**
+     * Starts a new frame and forgets tracks that are no longer alive.
+     * @param liveTrackIds - ids of the tracks present in this frame
+     */
+    public void beginFrame(int[] liveTrackIds) {
+        mFrame++;
+        Iterator<Map.Entry<Integer, Entry>> it = mEntries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, Entry> e = it.next();
+            if (!contains(liveTrackIds, e.getKey())) {
+                e.getValue().reference.release();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Compares the face with the thumbnail taken at its last appearance refresh.
+     * Must be called once per track and frame, before isDue().
+     * @param gray - upright gray frame
+     * @param face - face rectangle in gray
+     */
+    public void observe(int trackId, Mat gray, Rect face) {
+        Entry entry = entry(trackId);
+        Mat roi = gray.submat(face);
+        Imgproc.resize(roi, mThumbnail, THUMBNAIL_SIZE, 0, 0, Imgproc.INTER_AREA);
+        roi.release();
+        boolean changed = entry.reference.empty()
+                || Core.norm(mThumbnail, entry.reference, Core.NORM_L1) / mThumbnail.total()
+                > mAppearanceThreshold;
+        if (changed) {
+            mThumbnail.copyTo(entry.reference);
+            Arrays.fill(entry.forced, true);
+        }
+    }
+
+    /** Whether the attribute of this track should be inferred again in this frame. */
+    public boolean isDue(int trackId, int attribute) {
+        Entry entry = entry(trackId);
+        return entry.forced[attribute] || entry.smoothed[attribute] == null
+                || mFrame - entry.lastRefresh[attribute] >= mRefreshIntervals[attribute];
+    }
+
+    /**
+     * Folds a fresh softmax vector into the running average.
+     * @param probs - raw scores, copied, the caller may reuse the array
+     */
+    public void update(int trackId, int attribute, float[] probs) {
+        Entry entry = entry(trackId);
+        float[] smoothed = entry.smoothed[attribute];
+        if (smoothed == null || smoothed.length != probs.length || entry.forced[attribute]) {
+            entry.smoothed[attribute] = probs.clone();
+        } else {
+            float alpha = mSmoothing[attribute];
+            for (int i = 0; i < probs.length; i++)
+                smoothed[i] = alpha * probs[i] + (1 - alpha) * smoothed[i];
+        }
+        entry.lastRefresh[attribute] = mFrame;
+        entry.forced[attribute] = false;
+    }
+
+    /** Smoothed softmax of the attribute, or null if it was never inferred for this track. */
+    public float[] get(int trackId, int attribute) {
+        Entry entry = mEntries.get(trackId);
+        return entry != null ? entry.smoothed[attribute] : null;
+    }
+
+    public void clear() {
+        for (Entry entry : mEntries.values())
+            entry.reference.release();
+        mEntries.clear();
+        mThumbnail.release();
+    }
+
+    private Entry entry(int trackId) {
+        Entry entry = mEntries.get(trackId);
+        if (entry == null) {
+            entry = new Entry();
+            mEntries.put(trackId, entry);
+        }
+        return entry;
+    }
+
+    private static boolean contains(int[] ids, int id) {
+        for (int i : ids) {
+            if (i == id)
+                return true;
+        }
+        return false;
+    }
+}
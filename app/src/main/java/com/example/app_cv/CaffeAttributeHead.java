@@ -0,0 +1,109 @@
+package com.example.app_cv;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.dnn.Net;
+
+import java.util.List;
+
+/**
+ * A Caffe classification net (age or gender) that scores all faces of a frame with one
+ * forward pass per batch instead of one per face. Input blobs come from a PreprocessCache,
+ * so heads sharing an InputSpec also share the preprocessing work.
+ */
+public class CaffeAttributeHead {
+
+    /** Input of the Levi-Hassner age and gender nets. */
+    public static final InputSpec FACE_227 = new InputSpec(new Size(227, 227),
+            new Scalar(78.4263377603, 87.7689143744, 114.895847746), 1.0, false, false);
+
+    private static final String INPUT_NAME = "data";
+    private static final String OUTPUT_NAME = "prob";
+
+    private final Net mNet;
+    private final String[] mLabels;
+    private final InputSpec mInputSpec;
+    private final int mMaxBatchSize;
+    private ModelMetrics mMetrics;
+    private String mMetricsName;
+
+    /**
+     * @param net - loaded Caffe net
+     * @param labels - class names in softmax order
+     * @param inputSpec - input tensor layout expected by the net
+     * @param maxBatchSize - upper bound on faces per forward, keeps the latency of a crowded frame bounded
+     */
+    public CaffeAttributeHead(Net net, String[] labels, InputSpec inputSpec, int maxBatchSize) {
+        mNet = net;
+        mLabels = labels;
+        mInputSpec = inputSpec;
+        mMaxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    /** Samples the profile of every forward into metrics under name; null metrics stops it. */
+    public void setMetrics(ModelMetrics metrics, String name) {
+        mMetrics = metrics;
+        mMetricsName = name;
+    }
+
+    public InputSpec getInputSpec() {
+        return mInputSpec;
+    }
+
+    public boolean isReady() {
+        return mNet != null && !mNet.empty();
+    }
+
+    public String getLabel(int index) {
+        return index >= 0 && index < mLabels.length ? mLabels[index] : "";
+    }
+
+    /**
+     * Scores a list of faces.
+     * @param cache - preprocessing cache, already switched to the frame of rgba
+     * @param rgba - full RGBA frame
+     * @param faces - face rectangles in rgba
+     * @return one softmax row per face, in input order
+     */
+    public float[][] classify(PreprocessCache cache, Mat rgba, List<Rect> faces) {
+        float[][] probs = new float[faces.size()][];
+        for (int start = 0; start < faces.size(); start += mMaxBatchSize) {
+            int end = Math.min(faces.size(), start + mMaxBatchSize);
+            Mat inputBlob = cache.blob(rgba, faces.subList(start, end), mInputSpec);
+            // the net belongs to one inference worker, no other thread forwards it
+            mNet.setInput(inputBlob, INPUT_NAME);
+            Mat prob = mNet.forward(OUTPUT_NAME);
+            if (mMetrics != null)
+                mMetrics.recordForward(mMetricsName, mNet, shape(inputBlob));
+            // N x C x 1 x 1 -> N rows of C softmax outputs
+            Mat out = prob.reshape(1, end - start);
+            for (int i = start; i < end; i++) {
+                float[] row = new float[out.cols()];
+                out.get(i - start, 0, row);
+                probs[i] = row;
+            }
+            out.release();
+            prob.release();
+        }
+        return probs;
+    }
+
+    private static int[] shape(Mat blob) {
+        int[] shape = new int[blob.dims()];
+        for (int i = 0; i < shape.length; i++)
+            shape[i] = blob.size(i);
+        return shape;
+    }
+
+    /** Index of the largest softmax output. */
+    public static int argmax(float[] probs) {
+        int best = 0;
+        for (int i = 1; i < probs.length; i++) {
+            if (probs[i] > probs[best])
+                best = i;
+        }
+        return best;
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.app_cv;
+
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.core.Mat;
+
+/**
+ * Frame source backed by an OpenCV camera view, JavaCameraView or JavaCamera2View alike.
+ * Frames arrive on the view's delivery thread and the listener's result is what gets drawn.
+ */
+public class CameraFrameSource implements FrameSource, CameraBridgeViewBase.CvCameraViewListener2 {
+
+    private final CameraBridgeViewBase mView;
+    private volatile Listener mListener;
+    private volatile FrameTracer mTracer;
+
+    public CameraFrameSource(CameraBridgeViewBase view) {
+        mView = view;
+    }
+
+    /** Times the conversion of every camera frame into the CONVERT stage; null stops it. */
+    public void setTracer(FrameTracer tracer) {
+        mTracer = tracer;
+    }
+
+    @Override
+    public void start(Listener listener) {
+        mListener = listener;
+        mView.setCvCameraViewListener(this);
+        mView.enableView();
+    }
+
+    @Override
+    public void stop() {
+        mView.disableView();
+    }
+
+    @Override
+    public void onCameraViewStarted(int width, int height) {
+        Listener listener = mListener;
+        if (listener != null)
+            listener.onSourceStarted(width, height);
+    }
+
+    @Override
+    public void onCameraViewStopped() {
+        Listener listener = mListener;
+        if (listener != null)
+            listener.onSourceStopped();
+    }
+
+    @Override
+    public Mat onCameraFrame(CameraBridgeViewBase.CvCameraViewFrame inputFrame) {
+        Listener listener = mListener;
+        if (listener == null)
+            return inputFrame.rgba();
+        FrameTracer tracer = mTracer;
+        long start = FrameTracer.now();
+        Mat rgba = inputFrame.rgba();
+        Mat gray = inputFrame.gray();
+        if (tracer != null)
+            tracer.record(FrameTracer.CONVERT, start);
+        return listener.onFrame(rgba, gray);
+    }
+}
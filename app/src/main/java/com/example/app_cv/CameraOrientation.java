@@ -0,0 +1,27 @@
+package com.example.app_cv;
+
+import android.util.Log;
+
+import org.opencv.android.CameraBridgeViewBase;
+
+/**
+ * Reads sensor and display rotation from the device for OrientationManager.
+ */
+public class CameraOrientation {
+
+    private static final String TAG = "CameraOrientation";
+
+    private CameraOrientation() {
+    }
+
+    /**
+     * Orientation of the camera the view has open, JavaCameraView or JavaCamera2View alike,
+     * combined with the current display rotation. Call from onCameraViewStarted on.
+     */
+    public static OrientationManager forView(CameraBridgeViewBase view) {
+        OrientationManager orientation = new OrientationManager(view.getFrameRotation());
+        Log.i(TAG, "sensor " + view.getSensorOrientation() + (view.isFrontFacing() ? ", front" : ", back")
+                + " -> rotate " + orientation.getRotationDegrees());
+        return orientation;
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.app_cv;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+/**
+ * Emotion head as the pipeline sees it. SentimentClassifier implements it on top of the
+ * TensorFlow session; keeping the pipeline on this interface leaves it free of Android classes.
+ */
+public interface EmotionClassifier {
+
+    String[] EMOTIONS =
+            new String[]{"angry", "disgust", "fear", "happy", "sad", "surprise", "neutral"};
+
+    /**
+     * Scores one face.
+     * @param gray - full gray frame
+     * @param face - face rectangle in gray
+     * @return softmax over EMOTIONS; the array may be reused by the next call
+     */
+    float[] classify(Mat gray, Rect face);
+
+    void release();
+}
@@ -0,0 +1,22 @@
+package com.example.app_cv;
+
+import org.opencv.core.Rect;
+
+/**
+ * Result of the attribute stage for a single face: where it is and what was predicted.
+ * Instances are immutable so they can be handed from the pipeline threads to the
+ * camera thread without copying.
+ */
+public class FaceAnnotation {
+    public final Rect rect;
+    public final String age;
+    public final String gender;
+    public final String emotion;
+
+    public FaceAnnotation(Rect rect, String age, String gender, String emotion) {
+        this.rect = rect;
+        this.age = age != null ? age : "";
+        this.gender = gender != null ? gender : "";
+        this.emotion = emotion != null ? emotion : "";
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.app_cv;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * LBP cascade face detector with a region-of-interest mode.
+ *
+ * When the positions of the faces are already known (previous detections or tracker
+ * predictions) the cascade only scans a padded window around each of them, over a narrow
+ * range of scales around the previous box size. Every fullScanInterval passes the whole
+ * frame is scanned again so that new faces are picked up.
+ *
+ * Faces are at least a fifth of the short side, so the cascade does not need the full
+ * camera resolution: the gray frame is shrunk once per pass with area interpolation to
+ * detectionHeight rows, searched there, and the boxes are scaled back. Detection cost then
+ * stays the same whatever preview size the camera delivers.
+ *
+ * Not thread-safe; meant to be driven by the detect stage only.
+ */
+public class FaceDetector {
+
+    private static final double SCALE_FACTOR = 1.1;
+    private static final int MIN_NEIGHBORS = 2;
+    private static final int FLAGS = 2;
+    // a face may shrink or grow this much between two passes
+    private static final double MIN_SCALE_CHANGE = 0.7;
+    private static final double MAX_SCALE_CHANGE = 1.4;
+    private static final double DUPLICATE_IOU = 0.5;
+
+    private final CascadeClassifier mClassifier;
+    private final float mRelativeFaceSize;
+    private final int mFullScanInterval;
+    private final double mRoiPadding;
+    private final int mDetectionHeight;
+
+    private final Mat mSmall = new Mat();
+    private final MatOfRect mFaces = new MatOfRect();
+    private int mAbsoluteFaceSize = 0;
+    private int mPassesSinceFullScan = Integer.MAX_VALUE;
+
+    /**
+     * @param classifier - loaded cascade
+     * @param relativeFaceSize - smallest face to look for, as a share of the short image side
+     * @param fullScanInterval - detection passes between two full-frame scans
+     * @param roiPadding - padding around a known face, as a share of its size on each side
+     * @param detectionHeight - rows of the image the cascade runs on, 0 to use the frame as is
+     */
+    public FaceDetector(CascadeClassifier classifier, float relativeFaceSize,
+                        int fullScanInterval, double roiPadding, int detectionHeight) {
+        mClassifier = classifier;
+        mRelativeFaceSize = relativeFaceSize;
+        mFullScanInterval = Math.max(1, fullScanInterval);
+        mRoiPadding = roiPadding;
+        mDetectionHeight = detectionHeight;
+    }
+
+    /**
+     * Runs one detection pass.
+     * @param gray - upright gray frame
+     * @param known - expected face positions in gray, may be empty
+     * @return detected faces in gray coordinates
+     */
+    public Rect[] detect(Mat gray, List<Rect> known) {
+        if (mDetectionHeight <= 0 || gray.rows() <= mDetectionHeight)
+            return detectScaled(gray, known);
+
+        double scale = (double) mDetectionHeight / gray.rows();
+        Imgproc.resize(gray, mSmall, new Size(Math.round(gray.cols() * scale), mDetectionHeight),
+                0, 0, Imgproc.INTER_AREA);
+        List<Rect> knownSmall = new ArrayList<>(known.size());
+        for (Rect r : known)
+            knownSmall.add(rescale(r, scale));
+        Rect[] faces = detectScaled(mSmall, knownSmall);
+        for (int i = 0; i < faces.length; i++)
+            faces[i] = FaceTracker.clip(rescale(faces[i], 1 / scale), gray);
+        return faces;
+    }
+
+    public void reset() {
+        mAbsoluteFaceSize = 0;
+        mPassesSinceFullScan = Integer.MAX_VALUE;
+        mSmall.release();
+        mFaces.release();
+    }
+
+    // Detection on the image the cascade actually sees, known and results in its coordinates
+    private Rect[] detectScaled(Mat gray, List<Rect> known) {
+        if (mAbsoluteFaceSize == 0) {
+            int height = Math.min(gray.rows(), gray.cols());
+            if (Math.round(height * mRelativeFaceSize) > 0) {
+                mAbsoluteFaceSize = Math.round(height * mRelativeFaceSize);
+            }
+        }
+        // mAbsoluteFaceSize is nearly 20% of the short side.
+
+        if (known.isEmpty() || mPassesSinceFullScan >= mFullScanInterval) {
+            mPassesSinceFullScan = 1;
+            return detectIn(gray, new Rect(0, 0, gray.cols(), gray.rows()),
+                    mAbsoluteFaceSize, 0);
+        }
+        mPassesSinceFullScan++;
+
+        List<Rect> found = new ArrayList<>();
+        for (Rect face : known) {
+            int size = Math.max(face.width, face.height);
+            int pad = (int) Math.round(size * mRoiPadding);
+            Rect window = FaceTracker.clip(new Rect(face.x - pad, face.y - pad,
+                    face.width + 2 * pad, face.height + 2 * pad), gray);
+            int minSize = Math.max(mAbsoluteFaceSize, (int) (size * MIN_SCALE_CHANGE));
+            // a tracked face shrunk below the minimum face size would otherwise get an empty range
+            int maxSize = Math.max(minSize, (int) Math.ceil(size * MAX_SCALE_CHANGE));
+            if (window.width < minSize || window.height < minSize)
+                continue;
+            for (Rect r : detectIn(gray, window, minSize, maxSize)) {
+                // windows of close faces overlap and may report the same face twice
+                boolean duplicate = false;
+                for (Rect f : found) {
+                    if (FaceTracker.iou(f, r) > DUPLICATE_IOU) {
+                        duplicate = true;
+                        break;
+                    }
+                }
+                if (!duplicate)
+                    found.add(r);
+            }
+        }
+        return found.toArray(new Rect[0]);
+    }
+
+    // Run the cascade inside a window, maxSize 0 means unbounded
+    private Rect[] detectIn(Mat gray, Rect window, int minSize, int maxSize) {
+        Mat roi = gray.submat(window);
+        // the cascade may be shared with other screens through InferenceEngine
+        synchronized (mClassifier) {
+            mClassifier.detectMultiScale(roi, mFaces, SCALE_FACTOR, MIN_NEIGHBORS, FLAGS,
+                    new Size(minSize, minSize), new Size(maxSize, maxSize));
+        }
+        Rect[] result = mFaces.toArray();
+        for (Rect r : result) {
+            r.x += window.x;
+            r.y += window.y;
+        }
+        roi.release();
+        return result;
+    }
+
+    private static Rect rescale(Rect r, double scale) {
+        return new Rect((int) Math.round(r.x * scale), (int) Math.round(r.y * scale),
+                (int) Math.round(r.width * scale), (int) Math.round(r.height * scale));
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.app_cv;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.view.Choreographer;
+import android.view.View;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Transparent layer drawn above the camera view with the face boxes and labels.
+ *
+ * The camera frame is shown untouched; this view polls the latest annotations once per
+ * display refresh and only redraws when a new list was published, so detection and
+ * inference may run slower than the preview without making it stutter.
+ *
+ * Boxes are mapped from frame to view pixels with the same transform the camera view draws
+ * the frame with, so they follow its upright rotation and mirror; labels stay upright.
+ */
+public class FaceOverlayView extends View {
+
+    /** Latest annotations, in frame coordinates. Polled on the UI thread. */
+    public interface Source {
+        List<FaceAnnotation> getAnnotations();
+    }
+
+    private final Paint mBoxPaint = new Paint();
+    private final Paint mTextPaint = new Paint();
+    private final Paint.FontMetrics mFontMetrics = new Paint.FontMetrics();
+
+    private Source mSource;
+    private List<FaceAnnotation> mAnnotations = Collections.emptyList();
+    private final Matrix mFrameToView = new Matrix();
+    private final RectF mBox = new RectF();
+    private boolean mPolling;
+    private FrameTracer mTracer;
+
+    private final Choreographer.FrameCallback mPoll = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mPolling)
+                return;
+            Source source = mSource;
+            List<FaceAnnotation> latest = source != null
+                    ? source.getAnnotations() : Collections.<FaceAnnotation>emptyList();
+            // the pipeline publishes a new immutable list per frame, identity is enough
+            if (latest != mAnnotations) {
+                mAnnotations = latest;
+                invalidate();
+            }
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    };
+
+    public FaceOverlayView(Context context) {
+        this(context, null);
+    }
+
+    public FaceOverlayView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        mBoxPaint.setColor(Color.GREEN);
+        mBoxPaint.setStyle(Paint.Style.STROKE);
+        mBoxPaint.setStrokeWidth(3);
+        mTextPaint.setColor(Color.YELLOW);
+        mTextPaint.setTextSize(40);
+        mTextPaint.setAntiAlias(true);
+    }
+
+    /**
+     * Sets how the camera frame is drawn in this view.
+     * @param frameToView - frame pixels to camera view pixels, see
+     *                    CameraBridgeViewBase.getFrameToViewMatrix(); this view covers the camera view exactly
+     */
+    public void setFrameTransform(Matrix frameToView) {
+        mFrameToView.set(frameToView);
+        invalidate();
+    }
+
+    /** Times every redraw of the layer into the DRAW stage; null stops it. */
+    public void setTracer(FrameTracer tracer) {
+        mTracer = tracer;
+    }
+
+    /** Starts polling source at display refresh; null stops polling and clears the layer. */
+    public void setSource(Source source) {
+        mSource = source;
+        if (source != null && !mPolling) {
+            mPolling = true;
+            Choreographer.getInstance().postFrameCallback(mPoll);
+        } else if (source == null) {
+            mPolling = false;
+            Choreographer.getInstance().removeFrameCallback(mPoll);
+            mAnnotations = Collections.emptyList();
+            invalidate();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mPolling = false;
+        Choreographer.getInstance().removeFrameCallback(mPoll);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        long start = FrameTracer.now();
+        mTextPaint.getFontMetrics(mFontMetrics);
+        for (FaceAnnotation annotation : mAnnotations) {
+            mBox.set(annotation.rect.x, annotation.rect.y, annotation.rect.x + annotation.rect.width,
+                    annotation.rect.y + annotation.rect.height);
+            mFrameToView.mapRect(mBox);
+            float left = mBox.left;
+            float top = mBox.top;
+            float right = mBox.right;
+            float bottom = mBox.bottom;
+            canvas.drawRect(mBox, mBoxPaint);
+
+            // top left
+            canvas.drawText(annotation.age, left, top - mFontMetrics.descent, mTextPaint);
+            // bottom left
+            canvas.drawText(annotation.emotion, left, bottom - mFontMetrics.descent, mTextPaint);
+            // bottom right
+            canvas.drawText(annotation.gender, right, bottom - mFontMetrics.ascent, mTextPaint);
+        }
+        if (mTracer != null && !mAnnotations.isEmpty())
+            mTracer.record(FrameTracer.DRAW, start);
+    }
+}
@@ -0,0 +1,302 @@
+package com.example.app_cv;
+
+import org.opencv.core.Rect;
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * The work of the pipeline stages: turn the gray frame upright, detect and track faces,
+ * and score the attributes of the tracked faces on an InferenceWorkerPool.
+ *
+ * Plain Java and OpenCV only; the face screens feed it camera frames, the benchmark module
+ * replays recordings through it on a desktop JVM. One instance serves one camera session or
+ * replay, release() drops its tracks when that ends.
+ */
+public class FaceProcessor implements FramePipeline.Processor {
+
+    private static final Logger LOG = Logger.getLogger("FaceProcessor");
+
+    public static final String[] AGES =
+            new String[]{"0-2", "4-6", "8-13", "15-20", "25-32", "38-43", "48-53", "60+"};
+    public static final String[] GENDERS = new String[]{"Male", "Female"};
+
+    // the cascade runs every REDETECT_INTERVAL frames, optical flow carries the boxes in between
+    private static final int REDETECT_INTERVAL = 5;
+    private static final int TRACK_MAX_MISSES = 2;
+    private static final float TRACK_MIN_CONFIDENCE = 0.5f;
+
+    // detection passes only search around the tracked faces, the whole frame
+    // is scanned every FULL_SCAN_INTERVAL passes to pick up new ones
+    private static final float RELATIVE_FACE_SIZE = 0.2f;
+    private static final int FULL_SCAN_INTERVAL = 4;
+    private static final double ROI_PADDING = 0.5;
+    // the cascade runs on a copy shrunk to this many rows, boxes are scaled back
+    private static final int DETECTION_HEIGHT = 240;
+
+    // age and gender of a track are re-inferred rarely, emotion often, all of them
+    // at once when the face suddenly looks different
+    private static final int[] ATTRIBUTE_REFRESH_FRAMES = new int[]{30, 30, 3};
+    private static final float[] ATTRIBUTE_SMOOTHING = new float[]{0.3f, 0.3f, 0.5f};
+    private static final double APPEARANCE_THRESHOLD = 25;
+
+    private final OrientationManager mOrientation;
+    private final CascadeClassifier mCascade;
+    private final InferenceWorkerPool mWorkers;
+    private final FrameTracer mTracer;
+    private final FaceTracker mTracker =
+            new FaceTracker(REDETECT_INTERVAL, TRACK_MAX_MISSES, TRACK_MIN_CONFIDENCE);
+    private final AttributeStore mAttributes = new AttributeStore(
+            ATTRIBUTE_REFRESH_FRAMES, ATTRIBUTE_SMOOTHING, APPEARANCE_THRESHOLD);
+    private FaceDetector mDetector;
+    // set by the infer stage with the first frame that carries a label
+    private boolean mFirstLabelSeen = false;
+
+    /**
+     * @param orientation - how the frames are turned relative to an upright face
+     * @param cascade - face cascade, or null if it is published later through getCascade()
+     * @param workers - pool that runs the attribute heads
+     * @param tracer - receives the latency of every stage
+     */
+    public FaceProcessor(OrientationManager orientation, CascadeClassifier cascade,
+                         InferenceWorkerPool workers, FrameTracer tracer) {
+        mOrientation = orientation;
+        mCascade = cascade;
+        mWorkers = workers;
+        mTracer = tracer;
+    }
+
+    /**
+     * Cascade the detect stage binds on first use; null while it is not available yet.
+     * Asked on the detect stage until it returns one.
+     */
+    protected CascadeClassifier getCascade() {
+        return mCascade;
+    }
+
+    /**
+     * Whether an attribute head runs and is shown: AttributeStore.AGE, GENDER or EMOTION.
+     * Asked on the infer stage for every frame; all of them run by default.
+     */
+    protected boolean isHeadEnabled(int attribute) {
+        return true;
+    }
+
+    /** Called on the infer stage with the first frame that carries a label. */
+    protected void onFirstLabel() {
+    }
+
+    /** Forgets every track; call once the pipeline has stopped. */
+    public void release() {
+        mTracker.clear();
+        if (mDetector != null)
+            mDetector.reset();
+        mAttributes.clear();
+    }
+
+    // A share of the frame's faces with every head due for them, scored on whichever inference
+    // worker picks it up with that worker's own models. Each Caffe head runs its due faces as one
+    // batch, and age and gender share crops and blob through the worker's preprocessing cache;
+    // the results are folded into the tracks back on the infer stage.
+    private class FaceGroupTask implements InferenceWorkerPool.Task {
+        final FramePipeline.Frame frame;
+        final int rotateCode;
+        // faces in rgba for the Caffe heads, in uprightGray for emotion
+        final List<Rect> ageFaces = new ArrayList<>();
+        final List<Integer> ageIds = new ArrayList<>();
+        final List<Rect> genderFaces = new ArrayList<>();
+        final List<Integer> genderIds = new ArrayList<>();
+        final List<Rect> emotionFaces = new ArrayList<>();
+        final List<Integer> emotionIds = new ArrayList<>();
+        float[][] ageProbs;
+        float[][] genderProbs;
+        float[][] emotionProbs;
+
+        FaceGroupTask(FramePipeline.Frame frame, int rotateCode) {
+            this.frame = frame;
+            this.rotateCode = rotateCode;
+        }
+
+        boolean isEmpty() {
+            return ageFaces.isEmpty() && genderFaces.isEmpty() && emotionFaces.isEmpty();
+        }
+
+        @Override
+        public void run(InferenceWorkerPool.Worker worker) {
+            InferenceWorkerPool.WorkerModels models = worker.getModels();
+            PreprocessCache cache = worker.getCache();
+            cache.beginFrame(worker.getBatchId(), rotateCode);
+            ageProbs = classify(models.age, cache, ageFaces, FrameTracer.FORWARD_AGE);
+            if (worker.isCancelled())
+                return;
+            genderProbs = classify(models.gender, cache, genderFaces, FrameTracer.FORWARD_GENDER);
+            if (worker.isCancelled() || emotionFaces.isEmpty() || models.sentiment == null)
+                return;
+            float[][] probs = new float[emotionFaces.size()][];
+            for (int i = 0; i < probs.length; i++) {
+                long start = FrameTracer.now();
+                // the classifier reuses its output array
+                probs[i] = models.sentiment.classify(frame.uprightGray, emotionFaces.get(i)).clone();
+                mTracer.record(FrameTracer.FORWARD_EMOTION, start);
+            }
+            emotionProbs = probs;
+        }
+
+        private float[][] classify(CaffeAttributeHead head, PreprocessCache cache, List<Rect> faces, int stage) {
+            if (faces.isEmpty() || !head.isReady())
+                return null;
+            long start = FrameTracer.now();
+            float[][] probs = head.classify(cache, frame.rgba, faces);
+            mTracer.record(stage, start);
+            return probs;
+        }
+    }
+
+    // Fold one head's results of a group into their tracks
+    private void update(int attribute, List<Integer> trackIds, float[][] probs, String[] labels) {
+        if (probs == null)
+            return;
+        for (int i = 0; i < probs.length; i++) {
+            mAttributes.update(trackIds.get(i), attribute, probs[i]);
+            LOG.info((attribute == AttributeStore.AGE ? "Age" : attribute == AttributeStore.GENDER
+                    ? "Gender" : "Emotion") + " result is: " + label(probs[i], labels));
+        }
+    }
+
+    @Override
+    public void preprocess(FramePipeline.Frame frame) {
+        // lossless rotate of the gray frame only, faces must be upright for the cascade
+        long start = FrameTracer.now();
+        mOrientation.toUpright(frame.gray, frame.uprightGray);
+        mTracer.record(FrameTracer.ROTATE, start);
+    }
+
+    @Override
+    public void detect(FramePipeline.Frame frame) {
+        long start = FrameTracer.now();
+        Rect[] detections = null;
+        if (mDetector == null) {
+            CascadeClassifier cascade = getCascade();
+            if (cascade != null)
+                mDetector = new FaceDetector(cascade, RELATIVE_FACE_SIZE, FULL_SCAN_INTERVAL,
+                        ROI_PADDING, DETECTION_HEIGHT);
+        }
+        if (mTracker.needsDetection()) {
+            if (mDetector != null) {
+                List<Rect> known = new ArrayList<>();
+                for (FaceTracker.Track track : mTracker.getTracks())
+                    known.add(track.rect);
+                detections = mDetector.detect(frame.uprightGray, known);
+            }
+            else {
+                // still warming up, or the cascade failed to load
+                detections = new Rect[0];
+            }
+        }
+
+        List<FaceTracker.Track> tracks = mTracker.update(frame.uprightGray, detections);
+        List<Rect> rects = new ArrayList<>(tracks.size());
+        List<Integer> ids = new ArrayList<>(tracks.size());
+        for (FaceTracker.Track track : tracks) {
+            // tracked boxes may drift over the border, crops need them inside
+            Rect rect = FaceTracker.clip(track.rect, frame.uprightGray);
+            if (rect.width > 0 && rect.height > 0) {
+                rects.add(rect);
+                ids.add(track.id);
+            }
+        }
+        frame.faces = rects.toArray(new Rect[0]);
+        frame.trackIds = new int[ids.size()];
+        for (int i = 0; i < frame.trackIds.length; i++)
+            frame.trackIds[i] = ids.get(i);
+        mTracer.record(FrameTracer.DETECT, start);
+    }
+
+    @Override
+    public void infer(FramePipeline.Frame frame) {
+        mAttributes.beginFrame(frame.trackIds);
+        if (frame.faces.length == 0)
+            return;
+
+        // The color frame was never rotated: crop there and let the workers turn the crops upright.
+        Rect[] rgbaFaces = new Rect[frame.faces.length];
+        for (int i = 0; i < frame.faces.length; i++)
+            rgbaFaces[i] = mOrientation.toFrame(frame.faces[i], frame.rgba.cols(), frame.rgba.rows());
+        int rotateCode = mOrientation.getRotateCode();
+
+        // Only faces whose attribute is due get inferred, the rest reuse their track's result;
+        // heads that are not shown are not run at all.
+        boolean age = isHeadEnabled(AttributeStore.AGE);
+        boolean gender = isHeadEnabled(AttributeStore.GENDER);
+        boolean emotion = isHeadEnabled(AttributeStore.EMOTION);
+        // one group per ready worker at most, so a crowded frame is split across the cores while
+        // every worker still batches its share of the faces
+        int groups = Math.max(1, Math.min(frame.faces.length, mWorkers.getReadyWorkers()));
+        List<FaceGroupTask> tasks = new ArrayList<>(groups);
+        for (int g = 0; g < groups; g++)
+            tasks.add(new FaceGroupTask(frame, rotateCode));
+        for (int i = 0; i < frame.faces.length; i++) {
+            int trackId = frame.trackIds[i];
+            FaceGroupTask task = tasks.get(i % groups);
+            mAttributes.observe(trackId, frame.uprightGray, frame.faces[i]);
+            if (age && mAttributes.isDue(trackId, AttributeStore.AGE)) {
+                task.ageFaces.add(rgbaFaces[i]);
+                task.ageIds.add(trackId);
+            }
+            if (gender && mAttributes.isDue(trackId, AttributeStore.GENDER)) {
+                task.genderFaces.add(rgbaFaces[i]);
+                task.genderIds.add(trackId);
+            }
+            if (emotion && mAttributes.isDue(trackId, AttributeStore.EMOTION)) {
+                task.emotionFaces.add(frame.faces[i]);
+                task.emotionIds.add(trackId);
+            }
+        }
+        for (int g = tasks.size() - 1; g >= 0; g--) {
+            if (tasks.get(g).isEmpty())
+                tasks.remove(g);
+        }
+
+        // the groups run at once on the worker pool, so the frame waits for the slowest group
+        // instead of every face in turn; nothing runs until a worker is ready.
+        // Stopping the pipeline interrupts this stage, which cancels the batch: the call still
+        // returns only once no worker reads the frame any more, and the tracks keep their results.
+        if (!tasks.isEmpty() && mWorkers.invokeAll(tasks)) {
+            for (FaceGroupTask task : tasks) {
+                update(AttributeStore.AGE, task.ageIds, task.ageProbs, AGES);
+                update(AttributeStore.GENDER, task.genderIds, task.genderProbs, GENDERS);
+                update(AttributeStore.EMOTION, task.emotionIds, task.emotionProbs,
+                        EmotionClassifier.EMOTIONS);
+            }
+        }
+
+        for (int i = 0; i < frame.faces.length; i++) {
+            int trackId = frame.trackIds[i];
+            frame.annotations.add(new FaceAnnotation(rgbaFaces[i],
+                    age ? label(mAttributes.get(trackId, AttributeStore.AGE), AGES) : "",
+                    gender ? label(mAttributes.get(trackId, AttributeStore.GENDER), GENDERS) : "",
+                    emotion ? label(mAttributes.get(trackId, AttributeStore.EMOTION),
+                            EmotionClassifier.EMOTIONS) : ""));
+        }
+
+        if (!mFirstLabelSeen) {
+            for (FaceAnnotation annotation : frame.annotations) {
+                if (!annotation.age.isEmpty() || !annotation.gender.isEmpty()
+                        || !annotation.emotion.isEmpty()) {
+                    mFirstLabelSeen = true;
+                    onFirstLabel();
+                    break;
+                }
+            }
+        }
+    }
+
+    private static String label(float[] probs, String[] labels) {
+        if (probs == null)
+            return "";
+        int index = CaffeAttributeHead.argmax(probs);
+        return index < labels.length ? labels[index] : "";
+    }
+}
@@ -0,0 +1,359 @@
+package com.example.app_cv;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.KalmanFilter;
+import org.opencv.video.Video;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Detect-then-track: the cascade only runs every few frames, in between face boxes are
+ * carried forward by sparse optical flow on corners inside each box and smoothed by a
+ * constant velocity Kalman filter.
+ *
+ * Lifecycle of a track:
+ *  - birth: a detection that overlaps no existing track starts a new one with a fresh id;
+ *  - update: every frame the Kalman filter predicts the box, and optical flow and a matching
+ *    detection, when there are any, correct it together in one measurement;
+ *  - death: a track dies after missing maxMisses detection passes in a row, or when it
+ *    leaves the image.
+ * A detection pass is requested every redetectInterval frames, or earlier as soon as any
+ * track loses too many of its flow points.
+ *
+ * Not thread-safe; meant to be driven by the detect stage only.
+ */
+public class FaceTracker {
+
+    private static final int MAX_CORNERS = 30;
+    private static final int MIN_POINTS = 5;
+    private static final double MATCH_IOU = 0.3;
+    private static final Size FLOW_WINDOW = new Size(15, 15);
+    private static final int FLOW_LEVELS = 2;
+
+    public static class Track {
+        public final int id;
+        public Rect rect;
+        /** Share of flow points that survived the last step, 1 right after a detection. */
+        public float confidence = 1f;
+        /** Detection passes survived in total, and missed in a row. */
+        public int hits = 1;
+        public int misses = 0;
+
+        private final KalmanFilter mKalman;
+        private final Mat mMeasurement = new Mat(4, 1, CvType.CV_32FC1);
+        private final float[] mState = new float[6];
+        private MatOfPoint2f mPoints = new MatOfPoint2f();
+        // corrected box of the previous frame, which the flow displacement applies to
+        private Rect mPrevious;
+        // this frame's measurements, folded into one correction by correct()
+        private Rect mFlow;
+        private Rect mDetection;
+
+        Track(int id, Rect rect) {
+            this.id = id;
+            this.rect = rect;
+            // state: cx, cy, w, h, vx, vy; measurement: cx, cy, w, h
+            mKalman = new KalmanFilter(6, 4, 0, CvType.CV_32F);
+            // the setters share the data, the temporaries can go right away
+            Mat transition = Mat.eye(6, 6, CvType.CV_32F);
+            transition.put(0, 4, 1);
+            transition.put(1, 5, 1);
+            mKalman.set_transitionMatrix(transition);
+            transition.release();
+            Mat measurementMatrix = Mat.eye(4, 6, CvType.CV_32F);
+            mKalman.set_measurementMatrix(measurementMatrix);
+            measurementMatrix.release();
+            Mat processNoise = Mat.eye(6, 6, CvType.CV_32F);
+            processNoise.put(4, 4, 0.1);
+            processNoise.put(5, 5, 0.1);
+            mKalman.set_processNoiseCov(processNoise);
+            processNoise.release();
+            Mat measurementNoise = Mat.eye(4, 4, CvType.CV_32F);
+            mKalman.set_measurementNoiseCov(measurementNoise);
+            measurementNoise.release();
+            Mat errorCov = Mat.eye(6, 6, CvType.CV_32F);
+            mKalman.set_errorCovPost(errorCov);
+            errorCov.release();
+            Mat state = new Mat(6, 1, CvType.CV_32FC1);
+            state.put(0, 0, rect.x + rect.width / 2.0, rect.y + rect.height / 2.0,
+                    rect.width, rect.height, 0, 0);
+            mKalman.set_statePost(state);
+            state.release();
+        }
+
+        // Moves the box to the predicted state, which stands if nothing measures it this frame
+        void predict() {
+            mPrevious = rect;
+            readState(mKalman.predict());
+        }
+
+        /**
+         * Corrects the prediction with this frame's measurements: the matched detection and the
+         * flow estimate are averaged into one, the detection alone gives the size.
+         * @return false if nothing measured the track this frame
+         */
+        boolean correct() {
+            Rect measured = mDetection;
+            if (mDetection != null && mFlow != null) {
+                double cx = (mDetection.x + mDetection.width / 2.0 + mFlow.x + mFlow.width / 2.0) / 2;
+                double cy = (mDetection.y + mDetection.height / 2.0 + mFlow.y + mFlow.height / 2.0) / 2;
+                measured = new Rect((int) Math.round(cx - mDetection.width / 2.0),
+                        (int) Math.round(cy - mDetection.height / 2.0), mDetection.width, mDetection.height);
+            } else if (measured == null) {
+                measured = mFlow;
+            }
+            mFlow = null;
+            mDetection = null;
+            if (measured == null)
+                return false;
+            mMeasurement.put(0, 0, measured.x + measured.width / 2.0,
+                    measured.y + measured.height / 2.0, measured.width, measured.height);
+            readState(mKalman.correct(mMeasurement));
+            return true;
+        }
+
+        // Best estimate of the box before correction, for matching detections
+        Rect estimate() {
+            return mFlow != null ? mFlow : rect;
+        }
+
+        private void readState(Mat state) {
+            state.get(0, 0, mState);
+            state.release();
+            rect = new Rect((int) Math.round(mState[0] - mState[2] / 2.0),
+                    (int) Math.round(mState[1] - mState[3] / 2.0),
+                    Math.round(mState[2]), Math.round(mState[3]));
+        }
+
+        // The KalmanFilter object itself has no release in the Java API; it holds no frame data
+        void release() {
+            mMeasurement.release();
+            mPoints.release();
+        }
+    }
+
+    private final int mRedetectInterval;
+    private final int mMaxMisses;
+    private final float mMinConfidence;
+
+    private final List<Track> mTracks = new ArrayList<>();
+    private final Mat mPrevGray = new Mat();
+    private int mNextId = 1;
+    private int mFramesSinceDetection = Integer.MAX_VALUE;
+    private boolean mLostConfidence = false;
+
+    /**
+     * @param redetectInterval - frames between two full detection passes
+     * @param maxMisses - detection passes a track may miss before it dies
+     * @param minConfidence - share of surviving flow points below which detection is forced
+     */
+    public FaceTracker(int redetectInterval, int maxMisses, float minConfidence) {
+        mRedetectInterval = Math.max(1, redetectInterval);
+        mMaxMisses = Math.max(1, maxMisses);
+        mMinConfidence = minConfidence;
+    }
+
+    /** Whether the caller should run the detector on the next frame. */
+    public boolean needsDetection() {
+        return mTracks.isEmpty() || mLostConfidence
+                || mFramesSinceDetection >= mRedetectInterval;
+    }
+
+    /** Live tracks as of the last update, in the coordinates of the last gray frame. */
+    public List<Track> getTracks() {
+        return mTracks;
+    }
+
+    /**
+     * Advances all tracks to a new frame.
+     * @param gray - upright gray frame
+     * @param detections - detector output for this frame, or null if the detector did not run
+     * @return live tracks, valid until the next call
+     */
+    public List<Track> update(Mat gray, Rect[] detections) {
+        for (Track track : mTracks)
+            track.predict();
+
+        if (!mPrevGray.empty() && mPrevGray.size().equals(gray.size()))
+            propagate(gray);
+
+        if (detections != null) {
+            associate(gray, detections);
+            mFramesSinceDetection = 0;
+        } else {
+            mFramesSinceDetection++;
+        }
+
+        // one correction per track and frame, with whatever measured it
+        for (Track track : mTracks) {
+            boolean detected = track.mDetection != null;
+            track.correct();
+            if (detected)
+                seedPoints(gray, track);
+        }
+
+        mLostConfidence = false;
+        Iterator<Track> it = mTracks.iterator();
+        while (it.hasNext()) {
+            Track track = it.next();
+            if (track.misses >= mMaxMisses || !inside(track.rect, gray)) {
+                track.release();
+                it.remove();
+            } else if (track.confidence < mMinConfidence) {
+                mLostConfidence = true;
+            }
+        }
+
+        gray.copyTo(mPrevGray);
+        return mTracks;
+    }
+
+    public void clear() {
+        for (Track track : mTracks)
+            track.release();
+        mTracks.clear();
+        mPrevGray.release();
+        mFramesSinceDetection = Integer.MAX_VALUE;
+        mLostConfidence = false;
+    }
+
+    // Measure each box as moved by the median displacement of its surviving corners; boxes
+    // without enough points keep their Kalman prediction.
+    private void propagate(Mat gray) {
+        MatOfPoint2f next = new MatOfPoint2f();
+        MatOfByte status = new MatOfByte();
+        MatOfFloat err = new MatOfFloat();
+        for (Track track : mTracks) {
+            if (track.mPoints.rows() < MIN_POINTS) {
+                track.confidence = 0f;
+                continue;
+            }
+            Video.calcOpticalFlowPyrLK(mPrevGray, gray, track.mPoints, next, status, err,
+                    FLOW_WINDOW, FLOW_LEVELS);
+            Point[] from = track.mPoints.toArray();
+            Point[] to = next.toArray();
+            byte[] ok = status.toArray();
+
+            List<Point> kept = new ArrayList<>(to.length);
+            double[] dx = new double[to.length];
+            double[] dy = new double[to.length];
+            int n = 0;
+            for (int i = 0; i < ok.length; i++) {
+                if (ok[i] == 0)
+                    continue;
+                dx[n] = to[i].x - from[i].x;
+                dy[n] = to[i].y - from[i].y;
+                kept.add(to[i]);
+                n++;
+            }
+            track.confidence = from.length > 0 ? (float) n / from.length : 0f;
+            if (n < MIN_POINTS)
+                continue;
+
+            double mx = median(dx, n);
+            double my = median(dy, n);
+            Rect previous = track.mPrevious;
+            track.mFlow = new Rect((int) Math.round(previous.x + mx), (int) Math.round(previous.y + my),
+                    previous.width, previous.height);
+            track.mPoints.fromList(kept);
+        }
+        next.release();
+        status.release();
+        err.release();
+    }
+
+    // Greedy IoU matching of detections to tracks, then births and misses.
+    private void associate(Mat gray, Rect[] detections) {
+        boolean[] used = new boolean[detections.length];
+        for (Track track : mTracks) {
+            int best = -1;
+            double bestIou = MATCH_IOU;
+            for (int i = 0; i < detections.length; i++) {
+                if (used[i])
+                    continue;
+                double iou = iou(track.estimate(), detections[i]);
+                if (iou > bestIou) {
+                    bestIou = iou;
+                    best = i;
+                }
+            }
+            if (best >= 0) {
+                used[best] = true;
+                // corrected together with the flow estimate, then reseeded
+                track.mDetection = detections[best];
+                track.hits++;
+                track.misses = 0;
+                track.confidence = 1f;
+            } else {
+                track.misses++;
+            }
+        }
+        for (int i = 0; i < detections.length; i++) {
+            if (used[i])
+                continue;
+            Track track = new Track(mNextId++, detections[i]);
+            seedPoints(gray, track);
+            mTracks.add(track);
+        }
+    }
+
+    private void seedPoints(Mat gray, Track track) {
+        Rect roi = clip(track.rect, gray);
+        if (roi.width <= 0 || roi.height <= 0)
+            return;
+        Mat face = gray.submat(roi);
+        MatOfPoint corners = new MatOfPoint();
+        Imgproc.goodFeaturesToTrack(face, corners, MAX_CORNERS, 0.01, 5);
+        Point[] points = corners.toArray();
+        for (Point p : points) {
+            p.x += roi.x;
+            p.y += roi.y;
+        }
+        track.mPoints.fromArray(points);
+        corners.release();
+        face.release();
+    }
+
+    private static double median(double[] values, int n) {
+        double[] sorted = Arrays.copyOf(values, n);
+        Arrays.sort(sorted);
+        return sorted[n / 2];
+    }
+
+    static double iou(Rect a, Rect b) {
+        int x1 = Math.max(a.x, b.x);
+        int y1 = Math.max(a.y, b.y);
+        int x2 = Math.min(a.x + a.width, b.x + b.width);
+        int y2 = Math.min(a.y + a.height, b.y + b.height);
+        if (x2 <= x1 || y2 <= y1)
+            return 0;
+        double inter = (double) (x2 - x1) * (y2 - y1);
+        return inter / (a.area() + b.area() - inter);
+    }
+
+    static Rect clip(Rect r, Mat image) {
+        int x1 = Math.max(0, r.x);
+        int y1 = Math.max(0, r.y);
+        int x2 = Math.min(image.cols(), r.x + r.width);
+        int y2 = Math.min(image.rows(), r.y + r.height);
+        return new Rect(x1, y1, Math.max(0, x2 - x1), Math.max(0, y2 - y1));
+    }
+
+    private static boolean inside(Rect r, Mat image) {
+        Rect clipped = clip(r, image);
+        // keep tracks that are at least half visible
+        return clipped.area() * 2 >= r.area() && r.width > 0 && r.height > 0;
+    }
+}
@@ -0,0 +1,305 @@
+package com.example.app_cv;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Staged frame pipeline: capture -> preprocess -> detect -> infer -> overlay.
+ *
+ * The camera thread only copies the frame into a pooled slot with submit() and reads back
+ * the most recent overlay with getLatestOverlay(). Every other stage runs on its own
+ * executor and hands frames to the next one through a bounded queue. When a queue is full
+ * the oldest waiting frame is dropped, so a slow stage costs frames instead of latency.
+ *
+ * Plain Java and OpenCV only: FaceProcessor does the work of the stages and frames may come
+ * from the camera or from a replayed recording, on the device or on a desktop JVM.
+ */
+public class FramePipeline {
+
+    private static final Logger LOG = Logger.getLogger("FramePipeline");
+    private static final long POLL_TIMEOUT_MS = 100;
+
+    /**
+     * Work done by the stages. Each method is always called from the same stage thread,
+     * so implementations may keep per-stage state (classifiers, nets, sessions) unguarded.
+     */
+    public interface Processor {
+        /** Turns the captured Mats into the layout expected by the detector. */
+        void preprocess(Frame frame);
+
+        /** Fills frame.faces and frame.trackIds, in uprightGray coordinates. */
+        void detect(Frame frame);
+
+        /** Fills frame.annotations, one entry per face, in rgba coordinates. */
+        void infer(Frame frame);
+    }
+
+    /**
+     * A pooled pipeline slot. The Mats are reused from frame to frame, so a slot must not be
+     * referenced once it has been handed back to the pipeline.
+     */
+    public static class Frame {
+        public final Mat rgba = new Mat();
+        public final Mat gray = new Mat();
+        /** Gray frame turned upright by preprocess; faces are in its coordinates. */
+        public final Mat uprightGray = new Mat();
+        public long id;
+        /** Tick count at which capture of this frame started, see FrameTracer. */
+        public long captureTicks;
+        public Rect[] faces = new Rect[0];
+        /** Tracker id of each entry in faces. */
+        public int[] trackIds = new int[0];
+        public final List<FaceAnnotation> annotations = new ArrayList<>();
+
+        void reset(long frameId) {
+            id = frameId;
+            faces = new Rect[0];
+            trackIds = new int[0];
+            annotations.clear();
+        }
+
+        void release() {
+            rgba.release();
+            gray.release();
+            uprightGray.release();
+        }
+    }
+
+    private final Processor mProcessor;
+    private final FrameTracer mTracer;
+    private final BlockingQueue<Frame> mFreeFrames;
+    private final List<Frame> mAllFrames = new ArrayList<>();
+    private final List<Stage> mStages = new ArrayList<>();
+    private final AtomicLong mFrameCounter = new AtomicLong();
+    private final AtomicLong mDroppedFrames = new AtomicLong();
+    private final AtomicReference<List<FaceAnnotation>> mLatestOverlay =
+            new AtomicReference<>(Collections.<FaceAnnotation>emptyList());
+    private final Stage mFirstStage;
+    private volatile boolean mRunning;
+
+    /**
+     * @param processor - stage implementations
+     * @param queueCapacity - number of frames that may wait in front of each stage
+     * @param tracer - receives capture, overlay and end-to-end latency
+     */
+    public FramePipeline(Processor processor, int queueCapacity, FrameTracer tracer) {
+        mProcessor = processor;
+        mTracer = tracer;
+
+        Stage overlay = new Stage("overlay", queueCapacity, null) {
+            @Override
+            void process(Frame frame) {
+                long start = FrameTracer.now();
+                mLatestOverlay.set(Collections.unmodifiableList(
+                        new ArrayList<>(frame.annotations)));
+                mTracer.record(FrameTracer.OVERLAY, start);
+                mTracer.record(FrameTracer.END_TO_END, frame.captureTicks);
+            }
+        };
+        Stage infer = new Stage("infer", queueCapacity, overlay) {
+            @Override
+            void process(Frame frame) {
+                mProcessor.infer(frame);
+            }
+        };
+        Stage detect = new Stage("detect", queueCapacity, infer) {
+            @Override
+            void process(Frame frame) {
+                mProcessor.detect(frame);
+            }
+        };
+        mFirstStage = new Stage("preprocess", queueCapacity, detect) {
+            @Override
+            void process(Frame frame) {
+                mProcessor.preprocess(frame);
+            }
+        };
+        mStages.add(mFirstStage);
+        mStages.add(detect);
+        mStages.add(infer);
+        mStages.add(overlay);
+
+        // one frame in flight per stage, a full queue in front of each, plus one being captured
+        int poolSize = mStages.size() * (queueCapacity + 1) + 1;
+        mFreeFrames = new ArrayBlockingQueue<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            Frame frame = new Frame();
+            mAllFrames.add(frame);
+            mFreeFrames.add(frame);
+        }
+    }
+
+    public void start() {
+        mRunning = true;
+        for (Stage stage : mStages)
+            stage.start();
+    }
+
+    /**
+     * Stops every stage. The frame Mats are released once no stage thread can touch them any
+     * more: right away, or for a stage stuck in a long call, on a helper thread once it ends.
+     * @return false if a stage is still finishing its call, which may still use the Processor
+     */
+    public boolean stop() {
+        mRunning = false;
+        final List<ExecutorService> stuck = new ArrayList<>();
+        for (Stage stage : mStages) {
+            ExecutorService executor = stage.stop();
+            if (executor != null)
+                stuck.add(executor);
+        }
+        mLatestOverlay.set(Collections.<FaceAnnotation>emptyList());
+        if (stuck.isEmpty()) {
+            releaseFrames();
+            return true;
+        }
+        Thread release = new Thread("FramePipeline-release") {
+            @Override
+            public void run() {
+                try {
+                    for (ExecutorService executor : stuck)
+                        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    // leave the frames to their finalizers rather than free them under a stage
+                    return;
+                }
+                releaseFrames();
+            }
+        };
+        release.setDaemon(true);
+        release.start();
+        return false;
+    }
+
+    private void releaseFrames() {
+        for (Frame frame : mAllFrames)
+            frame.release();
+    }
+
+    /**
+     * Capture stage. Copies the camera Mats into a free slot and queues it for preprocessing.
+     * Never blocks: if no slot is free the frame is dropped.
+     * @return false if the frame was dropped
+     */
+    public boolean submit(Mat rgba, Mat gray) {
+        if (!mRunning)
+            return false;
+        long start = FrameTracer.now();
+        Frame frame = mFreeFrames.poll();
+        if (frame == null) {
+            mDroppedFrames.incrementAndGet();
+            return false;
+        }
+        frame.reset(mFrameCounter.incrementAndGet());
+        frame.captureTicks = start;
+        rgba.copyTo(frame.rgba);
+        gray.copyTo(frame.gray);
+        mTracer.record(FrameTracer.CAPTURE, start);
+        mFirstStage.offer(frame);
+        return true;
+    }
+
+    /**
+     * Annotations of the most recent frame that made it through every stage.
+     * The returned list is immutable and safe to read from any thread.
+     */
+    public List<FaceAnnotation> getLatestOverlay() {
+        return mLatestOverlay.get();
+    }
+
+    public long getDroppedFrames() {
+        return mDroppedFrames.get();
+    }
+
+    private void recycle(Frame frame) {
+        mFreeFrames.offer(frame);
+    }
+
+    private abstract class Stage implements Runnable {
+        private final String mName;
+        private final BlockingQueue<Frame> mInput;
+        private final Stage mNext;
+        private ExecutorService mExecutor;
+
+        Stage(String name, int capacity, Stage next) {
+            mName = name;
+            mInput = new ArrayBlockingQueue<>(capacity);
+            mNext = next;
+        }
+
+        abstract void process(Frame frame);
+
+        void start() {
+            mExecutor = Executors.newSingleThreadExecutor();
+            mExecutor.execute(this);
+        }
+
+        /** @return the executor if it is still running, null once it has terminated */
+        ExecutorService stop() {
+            ExecutorService executor = mExecutor;
+            if (executor == null)
+                return null;
+            mExecutor = null;
+            executor.shutdownNow();
+            boolean terminated = false;
+            try {
+                terminated = executor.awaitTermination(1, TimeUnit.SECONDS);
+                if (!terminated)
+                    LOG.severe("Stage " + mName + " did not stop in time, its frames are released once it does");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Frame frame;
+            while ((frame = mInput.poll()) != null)
+                recycle(frame);
+            return terminated ? null : executor;
+        }
+
+        /** Queues a frame, dropping the oldest waiting one if the queue is full. */
+        void offer(Frame frame) {
+            while (!mInput.offer(frame)) {
+                Frame stale = mInput.poll();
+                if (stale != null) {
+                    mDroppedFrames.incrementAndGet();
+                    recycle(stale);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (mRunning && !Thread.currentThread().isInterrupted()) {
+                Frame frame;
+                try {
+                    frame = mInput.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (frame == null)
+                    continue;
+                try {
+                    process(frame);
+                } catch (Exception e) {
+                    LOG.log(Level.SEVERE, "Error in stage " + mName, e);
+                }
+                if (mNext != null && mRunning)
+                    mNext.offer(frame);
+                else
+                    recycle(frame);
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.app_cv;
+
+import org.opencv.core.Mat;
+
+/**
+ * Anything that delivers frames to the detect and infer pipeline: a live camera view, a
+ * recorded video or a directory of images. Replay sources make runs reproducible and need
+ * no camera, so throughput and latency can be measured on the same frames every time.
+ */
+public interface FrameSource {
+
+    interface Listener {
+        /** Called once before the first frame, with the frame size. */
+        void onSourceStarted(int width, int height);
+
+        /**
+         * Called for every frame, on the source's delivery thread. The Mats are owned by the
+         * source and only valid during the call.
+         * @return the Mat to display; sources without a display ignore it
+         */
+        Mat onFrame(Mat rgba, Mat gray);
+
+        /** Called once after the last frame. */
+        void onSourceStopped();
+    }
+
+    /** Starts delivering frames to listener. */
+    void start(Listener listener);
+
+    /** Stops delivery; onSourceStopped has been called when this returns or is pending. */
+    void stop();
+}
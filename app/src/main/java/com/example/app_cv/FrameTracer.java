@@ -0,0 +1,213 @@
+package com.example.app_cv;
+
+import org.opencv.core.Core;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-stage latency of the frame path, from capture to draw.
+ *
+ * Stages are timed with Core.getTickCount() and recorded into one histogram per stage.
+ * Recording is a couple of atomic increments, so any thread may record into any stage
+ * without locking; percentiles are computed from a snapshot of the buckets when queried.
+ * END_TO_END is the time from the start of capture to the overlay being published.
+ */
+public class FrameTracer {
+
+    public static final int CAPTURE = 0;
+    public static final int CONVERT = 1;
+    public static final int ROTATE = 2;
+    public static final int DETECT = 3;
+    public static final int FORWARD_AGE = 4;
+    public static final int FORWARD_GENDER = 5;
+    public static final int FORWARD_EMOTION = 6;
+    public static final int OVERLAY = 7;
+    public static final int RENDER = 8;
+    public static final int DRAW = 9;
+    public static final int END_TO_END = 10;
+    private static final String[] STAGE_NAMES = new String[]{"capture", "convert", "rotate",
+            "detect", "forward_age", "forward_gender", "forward_emotion", "overlay", "render",
+            "draw", "end_to_end"};
+
+    private final double mTicksPerMicro;
+    private final Histogram[] mHistograms = new Histogram[STAGE_NAMES.length];
+
+    public FrameTracer() {
+        this(Core.getTickFrequency());
+    }
+
+    /** @param ticksPerSecond - rate of the stamps passed to record(), Core.getTickFrequency() */
+    FrameTracer(double ticksPerSecond) {
+        mTicksPerMicro = ticksPerSecond / 1e6;
+        for (int i = 0; i < mHistograms.length; i++)
+            mHistograms[i] = new Histogram();
+    }
+
+    /** Current tick count, the start stamp passed to record(). */
+    public static long now() {
+        return Core.getTickCount();
+    }
+
+    /**
+     * Records the time elapsed since start.
+     * @param start - tick count from now()
+     * @return the current tick count, so consecutive stages can chain their stamps
+     */
+    public long record(int stage, long start) {
+        return record(stage, start, Core.getTickCount());
+    }
+
+    /** Records the time between two tick counts, returns end. */
+    long record(int stage, long start, long end) {
+        mHistograms[stage].record(Math.round((end - start) / mTicksPerMicro));
+        return end;
+    }
+
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    public static int getStageCount() {
+        return STAGE_NAMES.length;
+    }
+
+    /** Number of samples recorded for the stage. */
+    public long getCount(int stage) {
+        return mHistograms[stage].getCount();
+    }
+
+    /**
+     * Latency the given share of the samples stays under.
+     * @param percentile - between 0 and 100
+     * @return microseconds, 0 if nothing was recorded
+     */
+    public long getPercentileMicros(int stage, double percentile) {
+        return mHistograms[stage].getPercentile(percentile);
+    }
+
+    public long getMaxMicros(int stage) {
+        return mHistograms[stage].getMax();
+    }
+
+    /** One line per stage with samples: count, mean, p50, p95, p99 and max in microseconds. */
+    public String summary() {
+        StringBuilder sb = new StringBuilder(String.format(Locale.US,
+                "%-16s %8s %8s %8s %8s %8s %8s%n", "stage", "count", "mean", "p50", "p95", "p99", "max"));
+        for (int i = 0; i < mHistograms.length; i++) {
+            Histogram h = mHistograms[i];
+            long count = h.getCount();
+            if (count == 0)
+                continue;
+            sb.append(String.format(Locale.US, "%-16s %8d %8d %8d %8d %8d %8d%n", STAGE_NAMES[i],
+                    count, h.getSum() / count, h.getPercentile(50), h.getPercentile(95),
+                    h.getPercentile(99), h.getMax()));
+        }
+        return sb.toString();
+    }
+
+    /** Writes summary() to file, replacing it. */
+    public void dump(File file) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(summary());
+        } finally {
+            writer.close();
+        }
+    }
+
+    public void reset() {
+        for (Histogram h : mHistograms)
+            h.reset();
+    }
+
+    /**
+     * Log-linear histogram of microsecond values: below 8 every value has its own bucket,
+     * above that every power of two is split into 8 buckets, so a percentile is off by at most
+     * 1/8 of its value. Values above 2^30 us go to the last bucket.
+     */
+    static class Histogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int MAX_EXPONENT = 30;
+        static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+        private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        void record(long micros) {
+            long value = Math.max(0, micros);
+            mCounts.incrementAndGet(bucket(value));
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+            long max = mMax.get();
+            while (value > max && !mMax.compareAndSet(max, value))
+                max = mMax.get();
+        }
+
+        long getCount() {
+            return mCount.get();
+        }
+
+        long getSum() {
+            return mSum.get();
+        }
+
+        long getMax() {
+            return mMax.get();
+        }
+
+        long getPercentile(double percentile) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = mCounts.get(i);
+                total += counts[i];
+            }
+            if (total == 0)
+                return 0;
+            long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank)
+                    return i == BUCKETS - 1 ? mMax.get() : Math.min(upperBound(i), mMax.get());
+            }
+            return mMax.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++)
+                mCounts.set(i, 0);
+            mCount.set(0);
+            mSum.set(0);
+            mMax.set(0);
+        }
+
+        static int bucket(long value) {
+            if (value < SUB_BUCKETS)
+                return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            if (exponent > MAX_EXPONENT)
+                return BUCKETS - 1;
+            int sub = (int) (value >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        // largest value that falls into the bucket
+        static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS)
+                return bucket;
+            int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            int sub = bucket % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.app_cv;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Replays the images of a directory, in file name order, read with Imgcodecs.imread.
+ * Files that cannot be decoded are skipped.
+ */
+public class ImageDirectoryFrameSource extends ReplayFrameSource {
+
+    private static final String[] EXTENSIONS = new String[]{".jpg", ".jpeg", ".png", ".bmp"};
+
+    private final File mDirectory;
+    private File[] mFiles;
+    private int mNext;
+
+    /**
+     * @param frameRate - frames per second to pace delivery at, 0 for as fast as possible
+     */
+    public ImageDirectoryFrameSource(File directory, double frameRate) {
+        super(frameRate);
+        mDirectory = directory;
+    }
+
+    @Override
+    protected boolean open() {
+        mFiles = mDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                String lower = name.toLowerCase(Locale.ROOT);
+                for (String extension : EXTENSIONS) {
+                    if (lower.endsWith(extension))
+                        return true;
+                }
+                return false;
+            }
+        });
+        if (mFiles == null)
+            return false;
+        Arrays.sort(mFiles);
+        mNext = 0;
+        return true;
+    }
+
+    @Override
+    protected boolean read(Mat bgr) {
+        while (mNext < mFiles.length) {
+            Mat image = Imgcodecs.imread(mFiles[mNext++].getAbsolutePath());
+            boolean ok = !image.empty();
+            if (ok)
+                image.copyTo(bgr);
+            image.release();
+            if (ok)
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    protected void close() {
+        mFiles = null;
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.app_cv;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.opencv.core.Core;
+import org.opencv.dnn.Net;
+import org.opencv.objdetect.CascadeClassifier;
+import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Application-scoped owner of every model the face screens use: the cascade, the age and
+ * gender Caffe nets and the sentiment TensorFlow session.
+ *
+ * The first screen to ask creates the engine, which starts the background warm-up; every
+ * later screen gets the same warm models, so switching between face_detect, age_detect,
+ * gender_detect and sentiment_detect neither reloads a model nor touches the model cache.
+ * Screens only choose which attribute heads they run.
+ *
+ * Attribute heads run on the engine's InferenceWorkerPool. Once the warm-up is done the first
+ * worker takes over the warm nets and session, every other worker loads copies of its own, so
+ * each net and session is only ever forwarded on the thread of the worker that owns it. Each
+ * worker's copy of the Caffe nets costs about 90 MB of native memory, which the thread count
+ * given to the first getInstance() trades against how many faces are scored at the same time.
+ * OpenCV's own thread pool is sized so that the workers together do not use more threads
+ * than there are cores.
+ *
+ * The cascade is the one model used by several threads: every screen's FaceProcessor detects
+ * on its own detect stage, and the pipeline of a screen being torn down can still be running
+ * while the next one starts, so FaceDetector synchronizes on it.
+ */
+public final class InferenceEngine {
+
+    private static final String TAG = "InferenceEngine";
+
+    // faces of one worker's share forwarded together; more are split into several batches
+    private static final int MAX_BATCH_SIZE = 8;
+
+    // run times over the last METRICS_WINDOW forwards, per-layer cost of the Caffe nets
+    private static final int METRICS_WINDOW = 100;
+    private static final int METRICS_TOP_LAYERS = 5;
+
+    private static InferenceEngine sInstance;
+
+    private final ModelCache mCache;
+    private final ModelWarmup mWarmup;
+    private final Future<Void> mReady;
+    private final ModelMetrics mMetrics = new ModelMetrics(METRICS_WINDOW, METRICS_TOP_LAYERS);
+    private final InferenceWorkerPool mWorkers;
+
+    private InferenceEngine(Context context, int inferenceThreads) {
+        // Every worker's Net.forward would otherwise start OpenCV's own thread pool over all
+        // cores, so four workers ran up to four times as many busy threads as there are cores
+        // and the forwards slowed each other down. The cores are split between the workers
+        // instead; the detection stage keeps at least one thread as well.
+        Core.setNumThreads(Math.max(1, Runtime.getRuntime().availableProcessors() / inferenceThreads));
+        mCache = new ModelCache(context);
+        mWarmup = new ModelWarmup(context, mCache);
+        mReady = mWarmup.start();
+        mWorkers = new InferenceWorkerPool(inferenceThreads, new InferenceWorkerPool.ModelFactory() {
+            @Override
+            public InferenceWorkerPool.WorkerModels create(int workerIndex)
+                    throws InterruptedException, ExecutionException {
+                mReady.get();
+                return createWorkerModels(workerIndex);
+            }
+        }, BuildConfig.DEBUG);
+    }
+
+    /** The process-wide engine with InferenceWorkerPool.defaultThreadCount() workers. */
+    public static InferenceEngine getInstance(Context context) {
+        return getInstance(context, InferenceWorkerPool.defaultThreadCount());
+    }
+
+    /**
+     * The process-wide engine, created and warming up on first call.
+     * @param inferenceThreads - workers scoring faces in parallel, each with its own copy of
+     *                         every attribute model (about 90 MB more per worker); only the
+     *                         first call decides, later ones get the engine as it was created
+     */
+    public static synchronized InferenceEngine getInstance(Context context, int inferenceThreads) {
+        if (sInstance == null)
+            sInstance = new InferenceEngine(context.getApplicationContext(), Math.max(1, inferenceThreads));
+        else if (inferenceThreads != sInstance.getThreadCount())
+            Log.w(TAG, "Engine already runs " + sInstance.getThreadCount() + " inference threads, "
+                    + inferenceThreads + " ignored");
+        return sInstance;
+    }
+
+    /** Completes when every model is loaded or failed to load. */
+    public Future<Void> getReadyFuture() {
+        return mReady;
+    }
+
+    public boolean isReady() {
+        return mWarmup.isReady();
+    }
+
+    /** Time the warm-up took, -1 while it is still running. */
+    public long getWarmupMillis() {
+        return mWarmup.getWarmupMillis();
+    }
+
+    public ModelCache getModelCache() {
+        return mCache;
+    }
+
+    /** Warmed-up cascade, null until ready or if it failed to load. */
+    public CascadeClassifier getCascade() {
+        return mWarmup.getCascade();
+    }
+
+    /** Workers that run the attribute heads, see InferenceWorkerPool. */
+    public InferenceWorkerPool getWorkerPool() {
+        return mWorkers;
+    }
+
+    /** Number of inference workers, each holding its own copy of the attribute models. */
+    public int getThreadCount() {
+        return mWorkers.getThreadCount();
+    }
+
+    /** Run times and layer costs of every model, across all workers and screens. */
+    public ModelMetrics getModelMetrics() {
+        return mMetrics;
+    }
+
+    // Called on the worker's thread once the warm-up is done
+    private InferenceWorkerPool.WorkerModels createWorkerModels(int workerIndex) {
+        long start = System.nanoTime();
+        Net ageNet;
+        Net genderNet;
+        TensorFlowInferenceInterface session;
+        if (workerIndex == 0) {
+            ageNet = mWarmup.getAgeNet();
+            genderNet = mWarmup.getGenderNet();
+            session = mWarmup.getSentiment();
+        } else {
+            ageNet = mWarmup.newAgeNet();
+            genderNet = mWarmup.newGenderNet();
+            session = mWarmup.newSentiment();
+        }
+
+        // a task brings a worker's whole share of the faces, scored as one batch per head
+        CaffeAttributeHead age = new CaffeAttributeHead(ageNet, FaceProcessor.AGES, CaffeAttributeHead.FACE_227, MAX_BATCH_SIZE);
+        age.setMetrics(mMetrics, "age");
+        CaffeAttributeHead gender = new CaffeAttributeHead(genderNet, FaceProcessor.GENDERS, CaffeAttributeHead.FACE_227, MAX_BATCH_SIZE);
+        gender.setMetrics(mMetrics, "gender");
+        SentimentClassifier sentiment = null;
+        if (session != null) {
+            sentiment = new SentimentClassifier(session);
+            sentiment.setMetrics(mMetrics);
+        }
+        Log.i(TAG, "Inference worker " + workerIndex + " ready in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        return new InferenceWorkerPool.WorkerModels(age, gender, sentiment);
+    }
+}
@@ -0,0 +1,254 @@
+package com.example.app_cv;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fixed pool of inference threads, each owning its own copy of the attribute models.
+ *
+ * Net.forward and a TensorFlow session are not safe for concurrent use, so instead of
+ * sharing one instance behind a lock every worker loads its own age and gender nets and
+ * sentiment session when it starts, and only then begins taking work. A batch of tasks
+ * submitted with invokeAll() is dealt round-robin onto the deques of the ready workers;
+ * a worker takes from the head of its own deque and, once that is empty, steals from the
+ * tail of the others, so one slow task never leaves the remaining cores idle. The caller
+ * blocks until the whole batch is done, which makes the frame cost the slowest task's
+ * time rather than the sum.
+ *
+ * Tasks read the caller's data, typically its frame, so invokeAll() never returns while one
+ * of them still runs. Interrupting the caller cancels the batch instead: tasks that have not
+ * started are skipped, running ones can poll Worker.isCancelled() to stop early.
+ *
+ * Plain Java and OpenCV only, so the pipeline can run on a desktop JVM as well.
+ */
+public class InferenceWorkerPool {
+
+    private static final Logger LOG = Logger.getLogger("InferenceWorkerPool");
+
+    /** Unit of work, run on whichever worker picks it up. */
+    public interface Task {
+        void run(Worker worker);
+    }
+
+    /** Builds the models of one worker; called on that worker's thread. */
+    public interface ModelFactory {
+        WorkerModels create(int workerIndex) throws Exception;
+    }
+
+    /** Models owned by one worker, never touched by any other thread. */
+    public static class WorkerModels {
+        public final CaffeAttributeHead age;
+        public final CaffeAttributeHead gender;
+        public final EmotionClassifier sentiment;
+
+        public WorkerModels(CaffeAttributeHead age, CaffeAttributeHead gender,
+                            EmotionClassifier sentiment) {
+            this.age = age;
+            this.gender = gender;
+            this.sentiment = sentiment;
+        }
+    }
+
+    // One invokeAll() call
+    private static class Batch {
+        final long id;
+        final CountDownLatch done;
+        volatile boolean cancelled;
+
+        Batch(long id, int tasks) {
+            this.id = id;
+            this.done = new CountDownLatch(tasks);
+        }
+    }
+
+    private static class Pending {
+        final Task task;
+        final Batch batch;
+
+        Pending(Task task, Batch batch) {
+            this.task = task;
+            this.batch = batch;
+        }
+    }
+
+    /** A pool thread with its models, its preprocessing cache and its task deque. */
+    public class Worker extends Thread {
+        private final int mIndex;
+        private final ConcurrentLinkedDeque<Pending> mDeque = new ConcurrentLinkedDeque<>();
+        private final PreprocessCache mCache;
+        private WorkerModels mModels;
+        private Batch mBatch;
+        private volatile boolean mReady;
+
+        Worker(int index) {
+            super("InferenceWorker-" + index);
+            mIndex = index;
+            mCache = new PreprocessCache(new MatArena(getName(), mDebugArenas));
+        }
+
+        public WorkerModels getModels() {
+            return mModels;
+        }
+
+        /**
+         * Crop and blob cache of this worker. Switch it to getBatchId() before use, so tasks
+         * of one invokeAll() share crops and nothing leaks over from an earlier frame.
+         */
+        public PreprocessCache getCache() {
+            return mCache;
+        }
+
+        /** Id of the invokeAll() the running task belongs to, unique within the pool. */
+        public long getBatchId() {
+            return mBatch.id;
+        }
+
+        /** Whether the caller of the running task's invokeAll() was interrupted. */
+        public boolean isCancelled() {
+            return mBatch.cancelled;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mModels = mFactory.create(mIndex);
+            } catch (Exception e) {
+                LOG.log(Level.SEVERE, getName() + " could not load its models", e);
+                return;
+            }
+            mReady = true;
+            mReadyWorkers.incrementAndGet();
+            try {
+                while (!isInterrupted()) {
+                    mPending.acquire();
+                    Pending pending = take();
+                    mBatch = pending.batch;
+                    try {
+                        if (!mBatch.cancelled)
+                            pending.task.run(this);
+                    } catch (Exception e) {
+                        LOG.log(Level.SEVERE, "Error in inference task", e);
+                    } finally {
+                        mBatch.done.countDown();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // shutdown
+            } finally {
+                mCache.release();
+                if (mModels.sentiment != null)
+                    mModels.sentiment.release();
+            }
+        }
+
+        // Own deque first, then steal from the others; a permit guarantees a task exists
+        private Pending take() {
+            while (true) {
+                Pending pending = mDeque.pollFirst();
+                if (pending != null)
+                    return pending;
+                for (int i = 1; i < mWorkers.size(); i++) {
+                    pending = mWorkers.get((mIndex + i) % mWorkers.size()).mDeque.pollLast();
+                    if (pending != null)
+                        return pending;
+                }
+                Thread.yield();
+            }
+        }
+    }
+
+    private final ModelFactory mFactory;
+    private final boolean mDebugArenas;
+    private final List<Worker> mWorkers = new ArrayList<>();
+    private final Semaphore mPending = new Semaphore(0);
+    private final AtomicInteger mReadyWorkers = new AtomicInteger();
+    private final AtomicInteger mNextWorker = new AtomicInteger();
+    private final AtomicLong mNextBatch = new AtomicLong();
+
+    /**
+     * Starts the workers; each loads its models in the background.
+     * @param threads - number of workers, see defaultThreadCount()
+     * @param factory - builds the models of each worker
+     * @param debugArenas - track the borrows of the workers' MatArenas, see MatArena
+     */
+    public InferenceWorkerPool(int threads, ModelFactory factory, boolean debugArenas) {
+        mFactory = factory;
+        mDebugArenas = debugArenas;
+        for (int i = 0; i < Math.max(1, threads); i++)
+            mWorkers.add(new Worker(i));
+        for (Worker worker : mWorkers)
+            worker.start();
+    }
+
+    /** Half the cores, at most four: the big cluster of a typical big.LITTLE phone. */
+    public static int defaultThreadCount() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    public int getThreadCount() {
+        return mWorkers.size();
+    }
+
+    /** Workers that finished loading their models and take work. */
+    public int getReadyWorkers() {
+        return mReadyWorkers.get();
+    }
+
+    /**
+     * Runs every task on the ready workers and waits for all of them. An interrupt cancels the
+     * tasks that have not started yet, but the call still returns only once no task runs any
+     * more; the interrupt is kept pending for the caller.
+     * @return false without running anything if no worker is ready yet, or if the batch was
+     *         cancelled and its results are incomplete
+     */
+    public boolean invokeAll(List<? extends Task> tasks) {
+        List<Worker> ready = new ArrayList<>(mWorkers.size());
+        for (Worker worker : mWorkers) {
+            if (worker.mReady && worker.isAlive())
+                ready.add(worker);
+        }
+        if (ready.isEmpty())
+            return false;
+        if (tasks.isEmpty())
+            return true;
+
+        Batch batch = new Batch(mNextBatch.getAndIncrement(), tasks.size());
+        batch.cancelled = Thread.currentThread().isInterrupted();
+        int next = mNextWorker.getAndIncrement();
+        for (int i = 0; i < tasks.size(); i++) {
+            Worker worker = ready.get(Math.abs((next + i) % ready.size()));
+            worker.mDeque.addLast(new Pending(tasks.get(i), batch));
+        }
+        mPending.release(tasks.size());
+        boolean interrupted = false;
+        while (true) {
+            try {
+                batch.done.await();
+                break;
+            } catch (InterruptedException e) {
+                // skipped tasks finish at once, running ones are waited for
+                batch.cancelled = true;
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        return !batch.cancelled;
+    }
+
+    /**
+     * Stops the workers and frees their models once their current task is done.
+     * Must not race with invokeAll(), whose queued tasks would never finish.
+     */
+    public void shutdown() {
+        for (Worker worker : mWorkers)
+            worker.interrupt();
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.app_cv;
+
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+
+import java.util.Arrays;
+
+/**
+ * Describes the input tensor a net expects, in the terms of Dnn.blobFromImages.
+ * Two nets with equal specs can be fed the very same blob.
+ */
+public class InputSpec {
+    public final Size size;
+    public final Scalar mean;
+    public final double scale;
+    public final boolean swapRB;
+    public final boolean crop;
+
+    public InputSpec(Size size, Scalar mean, double scale, boolean swapRB, boolean crop) {
+        this.size = size;
+        this.mean = mean;
+        this.scale = scale;
+        this.swapRB = swapRB;
+        this.crop = crop;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(new Object[]{size, mean, scale, swapRB, crop});
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof InputSpec)) return false;
+        InputSpec it = (InputSpec) obj;
+        return size.equals(it.size) && mean.equals(it.mean) && scale == it.scale
+                && swapRB == it.swapRB && crop == it.crop;
+    }
+
+    @Override
+    public String toString() {
+        return "InputSpec{" + size + ", mean=" + mean + ", scale=" + scale
+                + ", swapRB=" + swapRB + ", crop=" + crop + "}";
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.app_cv;
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Frame-scoped pool of temporary Mats, so per-frame scratch memory never waits for
+ * Mat.finalize to be freed.
+ *
+ * Scratch Mats are taken with borrow(), filled by OpenCV with create() semantics and handed
+ * back with giveBack() once the caller is done with them, at the latest before the frame ends;
+ * Mats that OpenCV hands out itself (blobs, forward outputs, submat headers) are registered
+ * with adopt(). endFrame() releases every adopted Mat and the returned ones stay on the free
+ * list with their native buffer kept, so the next borrow writing the same size and type into
+ * them does not allocate. release() frees everything.
+ *
+ * The bytes held by all arenas are counted at every endFrame(). A Mat that was never given
+ * back is reclaimed by endFrame() or release() all the same, but in debug mode each borrow
+ * remembers its call site and such a leak fails with the place the first of them was taken
+ * from, since whoever still holds it would write into a buffer the next frame reuses.
+ *
+ * Not thread-safe; use one arena per stage thread.
+ */
+public class MatArena {
+
+    private static final AtomicLong sLiveBytes = new AtomicLong();
+    private static final AtomicLong sPeakBytes = new AtomicLong();
+
+    private final String mName;
+    private final boolean mDebug;
+    private final ArrayDeque<Mat> mFree = new ArrayDeque<>();
+    private final List<Mat> mBorrowed = new ArrayList<>();
+    private final List<Mat> mAdopted = new ArrayList<>();
+    private final Map<Mat, Throwable> mBorrowSites = new IdentityHashMap<>();
+    private long mPooledBytes = 0;
+
+    /**
+     * @param name - used in leak reports
+     * @param debug - record borrow sites and fail on leaks, meant for debug builds
+     */
+    public MatArena(String name, boolean debug) {
+        mName = name;
+        mDebug = debug;
+    }
+
+    /** An empty or previously used Mat, to be given back before endFrame(). */
+    public Mat borrow() {
+        Mat mat = mFree.poll();
+        if (mat == null)
+            mat = new Mat();
+        mBorrowed.add(mat);
+        if (mDebug)
+            mBorrowSites.put(mat, new Throwable("borrowed from arena " + mName));
+        return mat;
+    }
+
+    /** A borrowed Mat allocated with the given size and type. */
+    public Mat borrow(int rows, int cols, int type) {
+        Mat mat = borrow();
+        mat.create(rows, cols, type);
+        return mat;
+    }
+
+    /**
+     * Returns a borrowed Mat to the pool; the caller must not touch it afterwards.
+     * @throws IllegalArgumentException if mat is not borrowed from this arena
+     */
+    public void giveBack(Mat mat) {
+        if (!mBorrowed.remove(mat))
+            throw new IllegalArgumentException("Mat not borrowed from arena " + mName);
+        mBorrowSites.remove(mat);
+        mFree.push(mat);
+    }
+
+    /** Releases mat at the next endFrame(). */
+    public <T extends Mat> T adopt(T mat) {
+        mAdopted.add(mat);
+        return mat;
+    }
+
+    /**
+     * Ends the frame: adopted Mats are released, Mats never given back are reclaimed.
+     * @throws IllegalStateException in debug mode, if Mats were still borrowed
+     */
+    public void endFrame() {
+        IllegalStateException leak = reclaim();
+        if (leak != null)
+            throw leak;
+    }
+
+    /**
+     * Frees every pooled Mat. Mats still borrowed are freed too.
+     * @throws IllegalStateException in debug mode, if Mats were still borrowed
+     */
+    public void release() {
+        IllegalStateException leak = reclaim();
+        for (Mat mat : mFree)
+            mat.release();
+        mFree.clear();
+        sLiveBytes.addAndGet(-mPooledBytes);
+        mPooledBytes = 0;
+        if (leak != null)
+            throw leak;
+    }
+
+    // Ends the frame; in debug mode returns the error to report for Mats never given back
+    private IllegalStateException reclaim() {
+        IllegalStateException leak = null;
+        if (mDebug && !mBorrowed.isEmpty())
+            leak = new IllegalStateException(mBorrowed.size() + " Mats still borrowed from " + mName,
+                    mBorrowSites.values().iterator().next());
+
+        long adoptedBytes = 0;
+        for (Mat mat : mAdopted) {
+            adoptedBytes += bytes(mat);
+            mat.release();
+        }
+        mAdopted.clear();
+        for (Mat mat : mBorrowed)
+            mFree.push(mat);
+        mBorrowed.clear();
+        mBorrowSites.clear();
+
+        long pooledBytes = 0;
+        for (Mat mat : mFree)
+            pooledBytes += bytes(mat);
+        long live = sLiveBytes.addAndGet(pooledBytes - mPooledBytes);
+        mPooledBytes = pooledBytes;
+        updatePeak(live + adoptedBytes);
+        return leak;
+    }
+
+    /** Native bytes kept in this arena's pool as of the last endFrame(). */
+    public long getPooledBytes() {
+        return mPooledBytes;
+    }
+
+    /** Native bytes kept by all arenas as of their last endFrame(). */
+    public static long getLiveBytes() {
+        return sLiveBytes.get();
+    }
+
+    /** Highest pooled plus adopted bytes seen at the end of a frame. */
+    public static long getPeakBytes() {
+        return sPeakBytes.get();
+    }
+
+    private static long bytes(Mat mat) {
+        return mat.empty() ? 0 : mat.total() * mat.elemSize();
+    }
+
+    private static void updatePeak(long bytes) {
+        long peak = sPeakBytes.get();
+        while (bytes > peak && !sPeakBytes.compareAndSet(peak, bytes))
+            peak = sPeakBytes.get();
+    }
+}
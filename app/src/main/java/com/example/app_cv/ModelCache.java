@@ -0,0 +1,276 @@
+package com.example.app_cv;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.dnn.Dnn;
+import org.opencv.dnn.Net;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+/**
+ * Versioned on-disk copy of the model files shipped in the APK.
+ *
+ * Native loaders need real files (the cascade) or memory buffers (Caffe nets), so every model is
+ * extracted once into files/models next to a small .properties record holding the version it was
+ * copied for, its length and its CRC32. A later launch of the same install finds a matching
+ * record and uses the file without touching the asset. After an app update the asset is
+ * checksummed and only copied again if its content actually changed.
+ *
+ * Caffe nets are read through Dnn.readNetFromCaffe(MatOfByte, MatOfByte) from a read-only
+ * memory mapping of the cached files, so the weights are never copied into the Java heap.
+ *
+ * Whether any file had to be copied since construction is reported by isCold(), and the time
+ * spent syncing by getSyncMillis().
+ */
+public class ModelCache {
+
+    private static final String TAG = "ModelCache";
+    private static final String DIR = "models";
+    // where Context.getDir("cascade") put the cascade before the cache existed
+    private static final String LEGACY_CASCADE_DIR = "app_cascade";
+    // bump to force every cached model to be copied again
+    private static final int CACHE_VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_LENGTH = "length";
+    private static final String KEY_CRC = "crc";
+
+    private interface Source {
+        InputStream open() throws IOException;
+    }
+
+    private final Context mContext;
+    private final File mDir;
+    private final String mVersion;
+    private boolean mCold = false;
+    private long mSyncMillis = 0;
+
+    public ModelCache(Context context) {
+        mContext = context.getApplicationContext();
+        mDir = new File(mContext.getFilesDir(), DIR);
+        mVersion = CACHE_VERSION + ":" + installTime(mContext);
+    }
+
+    /** Cached copy of an asset, extracted if missing or changed. */
+    public File getAsset(final String assetName) throws IOException {
+        return sync(assetName, new Source() {
+            @Override
+            public InputStream open() throws IOException {
+                return mContext.getAssets().open(assetName);
+            }
+        });
+    }
+
+    /** Cached copy of a raw resource, stored under fileName. */
+    public File getRaw(final int resId, String fileName) throws IOException {
+        return sync(fileName, new Source() {
+            @Override
+            public InputStream open() throws IOException {
+                return mContext.getResources().openRawResource(resId);
+            }
+        });
+    }
+
+    /**
+     * Reads a Caffe net from the cached, memory-mapped copies of two assets.
+     * @return the net, empty if it could not be parsed
+     */
+    public Net readNetFromCaffe(String protoAsset, String weightsAsset) throws IOException {
+        MappedByteBuffer proto = map(getAsset(protoAsset));
+        MappedByteBuffer weights = map(getAsset(weightsAsset));
+        MatOfByte protoMat = wrap(proto);
+        MatOfByte weightsMat = wrap(weights);
+        try {
+            return Dnn.readNetFromCaffe(protoMat, weightsMat);
+        } finally {
+            protoMat.release();
+            weightsMat.release();
+            // The Mats point into the mappings, which are only unmapped once the buffers are
+            // collected; using them after the native read keeps them reachable until it returns.
+            Log.i(TAG, "Read " + weightsAsset + " from a " + (proto.capacity() + weights.capacity()) / 1024
+                    + " KB mapping");
+        }
+    }
+
+    /**
+     * Deletes the copies older versions of the app extracted outside the cache, assets straight
+     * into files/ and the cascade into app_cascade/, once the cache holds the model itself.
+     * @param names - file names the models were extracted under
+     */
+    public void deleteLegacyCopies(String... names) {
+        File legacyCascadeDir = new File(mContext.getFilesDir().getParentFile(), LEGACY_CASCADE_DIR);
+        for (String name : names) {
+            if (!new File(mDir, name).isFile())
+                continue;
+            deleteLegacy(new File(mContext.getFilesDir(), name));
+            deleteLegacy(new File(legacyCascadeDir, name));
+        }
+        String[] left = legacyCascadeDir.list();
+        if (left != null && left.length == 0)
+            deleteLegacy(legacyCascadeDir);
+    }
+
+    private static void deleteLegacy(File file) {
+        if (file.exists()) {
+            long length = file.length();
+            if (file.delete())
+                Log.i(TAG, "Deleted legacy copy " + file + " (" + length / 1024 + " KB)");
+            else
+                Log.w(TAG, "Cannot delete legacy copy " + file);
+        }
+    }
+
+    /** Whether any model had to be copied since this cache was created. */
+    public synchronized boolean isCold() {
+        return mCold;
+    }
+
+    /** Time spent checking and copying models since this cache was created. */
+    public synchronized long getSyncMillis() {
+        return mSyncMillis;
+    }
+
+    private synchronized File sync(String name, Source source) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        File file = new File(mDir, name);
+        File recordFile = new File(mDir, name + ".properties");
+        Properties record = readRecord(recordFile);
+        String state;
+
+        if (file.isFile() && mVersion.equals(record.getProperty(KEY_VERSION))
+                && String.valueOf(file.length()).equals(record.getProperty(KEY_LENGTH))) {
+            state = "hit";
+        } else if (file.isFile() && String.valueOf(file.length()).equals(record.getProperty(KEY_LENGTH))
+                && String.valueOf(checksum(source)).equals(record.getProperty(KEY_CRC))) {
+            // new install of the same model, only the version stamp is out of date
+            record.setProperty(KEY_VERSION, mVersion);
+            writeRecord(recordFile, record);
+            state = "verified";
+        } else {
+            long crc = copy(source, file);
+            record.setProperty(KEY_VERSION, mVersion);
+            record.setProperty(KEY_LENGTH, String.valueOf(file.length()));
+            record.setProperty(KEY_CRC, String.valueOf(crc));
+            writeRecord(recordFile, record);
+            mCold = true;
+            state = "copied";
+        }
+
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        mSyncMillis += elapsed;
+        Log.i(TAG, name + ": " + state + " in " + elapsed + " ms");
+        return file;
+    }
+
+    // Copies through a temporary file so a crash never leaves a truncated model behind
+    private long copy(Source source, File file) throws IOException {
+        if (!mDir.isDirectory() && !mDir.mkdirs())
+            throw new IOException("Cannot create " + mDir);
+        File tmp = new File(mDir, file.getName() + ".tmp");
+        CRC32 crc = new CRC32();
+        InputStream is = source.open();
+        try {
+            OutputStream os = new FileOutputStream(tmp);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int bytesRead;
+                while ((bytesRead = is.read(buffer)) != -1) {
+                    crc.update(buffer, 0, bytesRead);
+                    os.write(buffer, 0, bytesRead);
+                }
+            } finally {
+                os.close();
+            }
+        } finally {
+            is.close();
+        }
+        if (!tmp.renameTo(file))
+            throw new IOException("Cannot move " + tmp + " to " + file);
+        return crc.getValue();
+    }
+
+    private static long checksum(Source source) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream is = source.open();
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = is.read(buffer)) != -1)
+                crc.update(buffer, 0, bytesRead);
+        } finally {
+            is.close();
+        }
+        return crc.getValue();
+    }
+
+    private static Properties readRecord(File file) {
+        Properties record = new Properties();
+        if (!file.isFile())
+            return record;
+        try {
+            InputStream is = new FileInputStream(file);
+            try {
+                record.load(is);
+            } finally {
+                is.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Ignoring unreadable " + file, e);
+            record.clear();
+        }
+        return record;
+    }
+
+    private static void writeRecord(File file, Properties record) throws IOException {
+        OutputStream os = new FileOutputStream(file);
+        try {
+            record.store(os, null);
+        } finally {
+            os.close();
+        }
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            // the mapping stays valid after the channel is closed
+            raf.close();
+        }
+    }
+
+    // MatOfByte header over a direct buffer, no copy
+    private static MatOfByte wrap(MappedByteBuffer buffer) {
+        Mat bytes = new Mat(buffer.capacity(), 1, CvType.CV_8UC1, buffer);
+        MatOfByte mat = new MatOfByte(bytes);
+        bytes.release();
+        return mat;
+    }
+
+    private static long installTime(Context context) {
+        try {
+            return context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.example.app_cv;
+
+import org.opencv.core.Core;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfInt;
+import org.opencv.dnn.Net;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Live cost of every model the app runs.
+ *
+ * For OpenCV nets each forward is sampled through Net.getPerfProfile: the total goes into a
+ * rolling window and every layer into a running average, so the layers worth optimizing
+ * show up by name. FLOPs and weight/blob memory come from Net.getFLOPS and
+ * Net.getMemoryConsumption, computed once per input shape the net is fed with.
+ * Graphs that expose no profile (the TensorFlow sentiment graph) report their run times
+ * through recordRun() and appear in the same table.
+ *
+ * All methods are synchronized; forwards are recorded from the infer stage and the
+ * summary may be read from anywhere.
+ */
+public class ModelMetrics {
+
+    private static final double TICKS_PER_MS = Core.getTickFrequency() / 1e3;
+    // weight of a new sample in the per-layer running average
+    private static final double LAYER_SMOOTHING = 0.1;
+
+    private static class Shape {
+        final long flops;
+        final long weightBytes;
+        final long blobBytes;
+
+        Shape(long flops, long weightBytes, long blobBytes) {
+            this.flops = flops;
+            this.weightBytes = weightBytes;
+            this.blobBytes = blobBytes;
+        }
+    }
+
+    private static class Model {
+        final double[] window;
+        int next;
+        int size;
+        long runs;
+        double last;
+        String[] layerNames;
+        double[] layerMeans;
+        final Map<String, Shape> shapes = new LinkedHashMap<>();
+
+        Model(int windowSize) {
+            window = new double[windowSize];
+        }
+
+        void add(double ms) {
+            window[next] = ms;
+            next = (next + 1) % window.length;
+            size = Math.min(size + 1, window.length);
+            runs++;
+            last = ms;
+        }
+
+        double mean() {
+            double sum = 0;
+            for (int i = 0; i < size; i++)
+                sum += window[i];
+            return size > 0 ? sum / size : 0;
+        }
+
+        double max() {
+            double max = 0;
+            for (int i = 0; i < size; i++)
+                max = Math.max(max, window[i]);
+            return max;
+        }
+    }
+
+    private final int mWindowSize;
+    private final int mTopLayers;
+    private final Map<String, Model> mModels = new LinkedHashMap<>();
+    private final MatOfDouble mTimings = new MatOfDouble();
+
+    /**
+     * @param windowSize - number of recent runs the mean and max are taken over
+     * @param topLayers - slowest layers listed per net in summary()
+     */
+    public ModelMetrics(int windowSize, int topLayers) {
+        mWindowSize = Math.max(1, windowSize);
+        mTopLayers = topLayers;
+    }
+
+    /**
+     * Samples the profile of the forward that just ran on net.
+     * @param name - model name in the report
+     * @param inputShape - shape of the blob fed to that forward, NCHW
+     */
+    public synchronized void recordForward(String name, Net net, int[] inputShape) {
+        Model model = model(name);
+        long total = net.getPerfProfile(mTimings);
+        model.add(total / TICKS_PER_MS);
+
+        double[] timings = mTimings.toArray();
+        if (model.layerNames == null) {
+            List<String> names = net.getLayerNames();
+            model.layerNames = names.toArray(new String[0]);
+            model.layerMeans = new double[model.layerNames.length];
+        }
+        // one timing per layer, in getLayerNames() order
+        int layers = Math.min(timings.length, model.layerMeans.length);
+        for (int i = 0; i < layers; i++) {
+            double ms = timings[i] / TICKS_PER_MS;
+            model.layerMeans[i] = model.runs == 1 ? ms
+                    : LAYER_SMOOTHING * ms + (1 - LAYER_SMOOTHING) * model.layerMeans[i];
+        }
+
+        String key = Arrays.toString(inputShape);
+        if (!model.shapes.containsKey(key)) {
+            MatOfInt shape = new MatOfInt(inputShape);
+            long[] weights = new long[1];
+            long[] blobs = new long[1];
+            net.getMemoryConsumption(shape, weights, blobs);
+            model.shapes.put(key, new Shape(net.getFLOPS(shape), weights[0], blobs[0]));
+            shape.release();
+        }
+    }
+
+    /**
+     * Records the duration of one run of a model without a profile.
+     * @param ticks - duration from Core.getTickCount()
+     */
+    public synchronized void recordRun(String name, long ticks) {
+        model(name).add(ticks / TICKS_PER_MS);
+    }
+
+    /** Mean run time over the window in milliseconds, 0 if the model never ran. */
+    public synchronized double getMeanMillis(String name) {
+        Model model = mModels.get(name);
+        return model != null ? model.mean() : 0;
+    }
+
+    /** FLOPs of one forward with the given input shape, 0 if that shape was never fed. */
+    public synchronized long getFlops(String name, int[] inputShape) {
+        Model model = mModels.get(name);
+        Shape shape = model != null ? model.shapes.get(Arrays.toString(inputShape)) : null;
+        return shape != null ? shape.flops : 0;
+    }
+
+    /**
+     * Run times of every model, then per net and input shape its cost, then its slowest layers.
+     */
+    public synchronized String summary() {
+        StringBuilder sb = new StringBuilder(String.format(Locale.US,
+                "%-12s %8s %10s %10s %10s%n", "model", "runs", "mean_ms", "last_ms", "max_ms"));
+        for (Map.Entry<String, Model> e : mModels.entrySet()) {
+            Model model = e.getValue();
+            sb.append(String.format(Locale.US, "%-12s %8d %10.2f %10.2f %10.2f%n", e.getKey(),
+                    model.runs, model.mean(), model.last, model.max()));
+        }
+        for (Map.Entry<String, Model> e : mModels.entrySet()) {
+            final Model model = e.getValue();
+            for (Map.Entry<String, Shape> s : model.shapes.entrySet()) {
+                Shape shape = s.getValue();
+                sb.append(String.format(Locale.US, "%s %s: %.2f GFLOPs, weights %.1f MB, blobs %.1f MB%n",
+                        e.getKey(), s.getKey(), shape.flops / 1e9, shape.weightBytes / 1048576.0,
+                        shape.blobBytes / 1048576.0));
+            }
+            if (model.layerNames == null)
+                continue;
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < model.layerMeans.length; i++)
+                order.add(i);
+            Collections.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Double.compare(model.layerMeans[b], model.layerMeans[a]);
+                }
+            });
+            for (int i = 0; i < Math.min(mTopLayers, order.size()); i++) {
+                int layer = order.get(i);
+                sb.append(String.format(Locale.US, "  %-24s %8.2f ms%n",
+                        model.layerNames[layer], model.layerMeans[layer]));
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Writes summary() to file, replacing it. */
+    public void dump(File file) throws IOException {
+        String summary = summary();
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(summary);
+        } finally {
+            writer.close();
+        }
+    }
+
+    public synchronized void clear() {
+        mModels.clear();
+        mTimings.release();
+    }
+
+    private Model model(String name) {
+        Model model = mModels.get(name);
+        if (model == null) {
+            model = new Model(mWindowSize);
+            mModels.put(name, model);
+        }
+        return model;
+    }
+}
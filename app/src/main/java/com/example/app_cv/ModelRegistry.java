@@ -0,0 +1,73 @@
+package com.example.app_cv;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process-wide owner of the loaded models. Every graph is parsed once, on first request,
+ * and the warm session is handed to every activity that asks for the same model path.
+ *
+ * A TensorFlowInferenceInterface keeps its fed tensors between feed/run/fetch, so callers
+ * that share a session across threads must synchronize on it around that sequence.
+ */
+public final class ModelRegistry {
+
+    private static final String TAG = "ModelRegistry";
+
+    private static final ModelRegistry sInstance = new ModelRegistry();
+
+    private final ConcurrentMap<String, LazyTensorFlow> mTensorFlow = new ConcurrentHashMap<>();
+
+    private ModelRegistry() {
+    }
+
+    public static ModelRegistry getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Returns the session for a TensorFlow graph, loading it on first use.
+     * @param context - any context, only its application assets are kept
+     * @param modelPath - asset path as accepted by TensorFlowInferenceInterface
+     */
+    public TensorFlowInferenceInterface getTensorFlow(Context context, String modelPath) {
+        LazyTensorFlow entry = mTensorFlow.get(modelPath);
+        if (entry == null) {
+            LazyTensorFlow created = new LazyTensorFlow(context.getApplicationContext(), modelPath);
+            entry = mTensorFlow.putIfAbsent(modelPath, created);
+            if (entry == null)
+                entry = created;
+        }
+        return entry.get();
+    }
+
+    /**
+     * Loads the graph the first time get() is called. Loading holds only this entry's lock,
+     * so different models can be loaded concurrently.
+     */
+    private static class LazyTensorFlow {
+        private final Context mContext;
+        private final String mModelPath;
+        private TensorFlowInferenceInterface mSession;
+
+        LazyTensorFlow(Context context, String modelPath) {
+            mContext = context;
+            mModelPath = modelPath;
+        }
+
+        synchronized TensorFlowInferenceInterface get() {
+            if (mSession == null) {
+                long start = System.nanoTime();
+                mSession = new TensorFlowInferenceInterface(mContext.getAssets(), mModelPath);
+                Log.i(TAG, "Loaded " + mModelPath + " in "
+                        + (System.nanoTime() - start) / 1000000 + " ms");
+            }
+            return mSession;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.example.app_cv;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.dnn.Net;
+import org.opencv.objdetect.CascadeClassifier;
+import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads the cascade, the age and gender Caffe nets and the sentiment TensorFlow graph
+ * concurrently on background threads, and runs one dummy forward through each so lazy
+ * allocation and kernel selection happen before the first real frame.
+ *
+ * Every model is published as soon as its own warm-up is done, so callers poll the getters
+ * and skip the work that needs a model that is still null. start() returns a future that
+ * completes once all of them are loaded or failed to load; a failed net is published empty.
+ */
+public class ModelWarmup {
+
+    private static final String TAG = "ModelWarmup";
+
+    private static final String CASCADE_FILE = "lbpcascade_frontalface.xml";
+    private static final String AGE_PROTO = "deploy_age.prototxt";
+    private static final String AGE_WEIGHTS = "age_net.caffemodel";
+    private static final String GENDER_PROTO = "deploy_gender.prototxt";
+    private static final String GENDER_WEIGHTS = "gender_net.caffemodel";
+
+    // dummy inputs, the sizes the models see at run time
+    private static final int WARMUP_GRAY_HEIGHT = 240;
+    private static final int WARMUP_GRAY_WIDTH = 320;
+    private static final int[] CAFFE_INPUT_SHAPE = new int[]{1, 3, 227, 227};
+
+    private final Context mContext;
+    private final ModelCache mCache;
+
+    private volatile CascadeClassifier mCascade;
+    private volatile Net mAgeNet;
+    private volatile Net mGenderNet;
+    private volatile TensorFlowInferenceInterface mSentiment;
+
+    private Future<Void> mReady;
+    private long mStartMillis;
+    private volatile long mReadyMillis = -1;
+
+    public ModelWarmup(Context context, ModelCache cache) {
+        mContext = context.getApplicationContext();
+        mCache = cache;
+    }
+
+    /**
+     * Starts loading, once; later calls return the same future.
+     * @return completes when every model is published
+     */
+    public synchronized Future<Void> start() {
+        if (mReady != null)
+            return mReady;
+        mStartMillis = SystemClock.elapsedRealtime();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final List<Future<?>> loads = new ArrayList<>();
+
+        loads.add(executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.elapsedRealtime();
+                CascadeClassifier cascade = loadCascade();
+                if (cascade != null) {
+                    Mat gray = new Mat(WARMUP_GRAY_HEIGHT, WARMUP_GRAY_WIDTH, CvType.CV_8UC1, new Scalar(0));
+                    MatOfRect faces = new MatOfRect();
+                    cascade.detectMultiScale(gray, faces);
+                    faces.release();
+                    gray.release();
+                }
+                mCascade = cascade;
+                log("cascade", start);
+            }
+        }));
+        loads.add(executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.elapsedRealtime();
+                mAgeNet = warm(loadCaffe(AGE_PROTO, AGE_WEIGHTS));
+                log("age net", start);
+            }
+        }));
+        loads.add(executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.elapsedRealtime();
+                mGenderNet = warm(loadCaffe(GENDER_PROTO, GENDER_WEIGHTS));
+                log("gender net", start);
+            }
+        }));
+        loads.add(executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.elapsedRealtime();
+                mSentiment = warm(ModelRegistry.getInstance()
+                        .getTensorFlow(mContext, SentimentClassifier.MODEL_PATH));
+                log("sentiment graph", start);
+            }
+        }));
+
+        // queued behind the loads, so it only occupies a thread once one of them is done
+        mReady = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedException {
+                for (Future<?> load : loads) {
+                    try {
+                        load.get();
+                    } catch (ExecutionException e) {
+                        Log.e(TAG, "Model warm-up failed", e.getCause());
+                    }
+                }
+                mReadyMillis = SystemClock.elapsedRealtime() - mStartMillis;
+                Log.i(TAG, "All models ready in " + mReadyMillis + " ms ("
+                        + (mCache.isCold() ? "cold" : "warm") + " start, "
+                        + mCache.getSyncMillis() + " ms syncing the cache)");
+                // about 90 MB that earlier versions extracted next to the cache
+                mCache.deleteLegacyCopies(CASCADE_FILE, AGE_PROTO, AGE_WEIGHTS,
+                        GENDER_PROTO, GENDER_WEIGHTS);
+                return null;
+            }
+        });
+        executor.shutdown();
+        return mReady;
+    }
+
+    public boolean isReady() {
+        return mReadyMillis >= 0;
+    }
+
+    /** Time from start() until every model was published, -1 while warming up. */
+    public long getWarmupMillis() {
+        return mReadyMillis;
+    }
+
+    /** Warmed-up cascade, null until ready or if it failed to load. */
+    public CascadeClassifier getCascade() {
+        return mCascade;
+    }
+
+    /** Warmed-up age net, null until ready, empty if it failed to load. */
+    public Net getAgeNet() {
+        return mAgeNet;
+    }
+
+    /** Warmed-up gender net, null until ready, empty if it failed to load. */
+    public Net getGenderNet() {
+        return mGenderNet;
+    }
+
+    /** Warmed-up sentiment session, null until ready or if it failed to load. */
+    public TensorFlowInferenceInterface getSentiment() {
+        return mSentiment;
+    }
+
+    /**
+     * A new warmed-up age net, for a thread that needs a copy of its own.
+     * Reads the model cache, so call it only once start() has completed.
+     * @return the net, empty if it failed to load
+     */
+    public Net newAgeNet() {
+        return warm(loadCaffe(AGE_PROTO, AGE_WEIGHTS));
+    }
+
+    /** A new warmed-up gender net, see newAgeNet(). */
+    public Net newGenderNet() {
+        return warm(loadCaffe(GENDER_PROTO, GENDER_WEIGHTS));
+    }
+
+    /** A new warmed-up sentiment session with a graph of its own, null if it failed to load. */
+    public TensorFlowInferenceInterface newSentiment() {
+        try {
+            return warm(new TensorFlowInferenceInterface(mContext.getAssets(),
+                    SentimentClassifier.MODEL_PATH));
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to read the sentiment graph", e);
+            return null;
+        }
+    }
+
+    private CascadeClassifier loadCascade() {
+        try {
+            CascadeClassifier cascade = new CascadeClassifier(
+                    mCache.getRaw(R.raw.lbpcascade_frontalface, CASCADE_FILE).getAbsolutePath());
+            if (!cascade.empty())
+                return cascade;
+            Log.e(TAG, "Cascade loading failed");
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to read the cascade", e);
+        }
+        return null;
+    }
+
+    private Net loadCaffe(String proto, String weights) {
+        try {
+            return mCache.readNetFromCaffe(proto, weights);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to read " + weights, e);
+            return new Net();
+        }
+    }
+
+    // One forward on a zero blob, the first one pays for allocation and backend setup
+    private static Net warm(Net net) {
+        if (net.empty())
+            return net;
+        Mat blob = new Mat(CAFFE_INPUT_SHAPE, CvType.CV_32F, new Scalar(0));
+        net.setInput(blob, "data");
+        net.forward("prob").release();
+        blob.release();
+        return net;
+    }
+
+    private static TensorFlowInferenceInterface warm(TensorFlowInferenceInterface session) {
+        SentimentClassifier classifier = new SentimentClassifier(session);
+        Mat gray = new Mat(SentimentPreprocessor.HEIGHT, SentimentPreprocessor.WIDTH,
+                CvType.CV_8UC1, new Scalar(0));
+        classifier.classify(gray, new Rect(0, 0, gray.cols(), gray.rows()));
+        classifier.release();
+        gray.release();
+        return session;
+    }
+
+    private static void log(String model, long start) {
+        Log.i(TAG, model + " warmed up in " + (SystemClock.elapsedRealtime() - start) + " ms");
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.app_cv;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+/**
+ * Knows how the camera image is oriented relative to an upright face.
+ *
+ * Sensor and display rotation are read once, when the manager is created. Only the small
+ * grayscale detection image is rotated (a lossless transpose/flip, no interpolation); the
+ * full resolution color frame is left as delivered and detected rectangles are mapped back
+ * into its coordinates with plain integer geometry.
+ *
+ * Free of Android classes; CameraOrientation takes the angle from the camera view, which
+ * combines sensor and display rotation for its own drawing as well.
+ */
+public class OrientationManager {
+
+    /** Rotate code meaning "already upright". */
+    public static final int NO_ROTATION = -1;
+
+    private final int mRotationDegrees;
+    private final int mRotateCode;
+
+    /**
+     * @param rotationDegrees - clockwise rotation that turns the camera image upright, multiple of 90
+     */
+    public OrientationManager(int rotationDegrees) {
+        mRotationDegrees = ((rotationDegrees % 360) + 360) % 360;
+        switch (mRotationDegrees) {
+            case 90:
+                mRotateCode = Core.ROTATE_90_CLOCKWISE;
+                break;
+            case 180:
+                mRotateCode = Core.ROTATE_180;
+                break;
+            case 270:
+                mRotateCode = Core.ROTATE_90_COUNTERCLOCKWISE;
+                break;
+            default:
+                mRotateCode = NO_ROTATION;
+        }
+    }
+
+    public int getRotationDegrees() {
+        return mRotationDegrees;
+    }
+
+    /** Core.rotate code that makes an image upright, or NO_ROTATION. */
+    public int getRotateCode() {
+        return mRotateCode;
+    }
+
+    /** Rotates a camera image upright. dst must not be src. */
+    public void toUpright(Mat src, Mat dst) {
+        if (mRotateCode == NO_ROTATION)
+            src.copyTo(dst);
+        else
+            Core.rotate(src, dst, mRotateCode);
+    }
+
+    /**
+     * Maps a rectangle found in the upright image back into the camera frame.
+     * @param frameWidth - width of the camera frame
+     * @param frameHeight - height of the camera frame
+     */
+    public Rect toFrame(Rect upright, int frameWidth, int frameHeight) {
+        switch (mRotationDegrees) {
+            case 90:
+                return new Rect(upright.y, frameHeight - (upright.x + upright.width),
+                        upright.height, upright.width);
+            case 180:
+                return new Rect(frameWidth - (upright.x + upright.width),
+                        frameHeight - (upright.y + upright.height), upright.width, upright.height);
+            case 270:
+                return new Rect(frameWidth - (upright.y + upright.height), upright.x,
+                        upright.height, upright.width);
+            default:
+                return upright.clone();
+        }
+    }
+
+    /**
+     * Maps a rectangle of the camera frame into the upright image, the inverse of toFrame().
+     */
+    public Rect toUpright(Rect frame, int frameWidth, int frameHeight) {
+        switch (mRotationDegrees) {
+            case 90:
+                return new Rect(frameHeight - (frame.y + frame.height), frame.x,
+                        frame.height, frame.width);
+            case 180:
+                return new Rect(frameWidth - (frame.x + frame.width),
+                        frameHeight - (frame.y + frame.height), frame.width, frame.height);
+            case 270:
+                return new Rect(frame.y, frameWidth - (frame.x + frame.width),
+                        frame.height, frame.width);
+            default:
+                return frame.clone();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.app_cv;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.dnn.Dnn;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-frame cache of net inputs. A face crop is resized and converted once per target size,
+ * and a batched blob is built once per input spec, no matter how many heads consume it.
+ *
+ * Entries belong to the current frame only: beginFrame() with a new frame id ends the
+ * previous frame of the cache's MatArena, so crops go back to the pool and blobs are freed
+ * right away. Returned Mats are owned by the cache and must not be released by the caller.
+ * Not thread-safe, use one instance per inference thread.
+ */
+public class PreprocessCache {
+
+    private long mFrameId = -1;
+    private int mRotateCode = OrientationManager.NO_ROTATION;
+    private final Map<FaceKey, Mat> mFaces = new HashMap<>();
+    private final Map<BlobKey, Mat> mBlobs = new HashMap<>();
+    private final MatArena mArena;
+
+    public PreprocessCache() {
+        this(new MatArena("preprocess", false));
+    }
+
+    /** @param arena - arena the crops are borrowed from, owned by the cache from now on */
+    public PreprocessCache(MatArena arena) {
+        mArena = arena;
+    }
+
+    /**
+     * Switches the cache to a new frame, dropping entries of the previous one.
+     * @param rotateCode - Core.rotate code that turns crops of this frame upright,
+     *                   or OrientationManager.NO_ROTATION
+     */
+    public void beginFrame(long frameId, int rotateCode) {
+        if (frameId != mFrameId) {
+            clear();
+            mFrameId = frameId;
+        }
+        mRotateCode = rotateCode;
+    }
+
+    /**
+     * Returns the upright BGR crop of one face resized to the given size.
+     * @param rgba - full RGBA frame
+     * @param rect - face rectangle in rgba coordinates
+     */
+    public Mat face(Mat rgba, Rect rect, Size size) {
+        FaceKey key = new FaceKey(rect, size);
+        Mat face = mFaces.get(key);
+        if (face == null) {
+            Mat capturedFace = new Mat(rgba, rect);
+            Mat resized = mArena.borrow();
+            //Resizing pictures to resolution of the net
+            Imgproc.resize(capturedFace, resized, size);
+            capturedFace.release();
+            //Converting RGBA to BGR, into a separate Mat so pooled buffers keep their type
+            face = mArena.borrow();
+            Imgproc.cvtColor(resized, face, Imgproc.COLOR_RGBA2BGR);
+            mArena.giveBack(resized);
+            //Only the small crop is rotated, never the full frame
+            if (mRotateCode != OrientationManager.NO_ROTATION) {
+                Mat upright = mArena.borrow();
+                Core.rotate(face, upright, mRotateCode);
+                mArena.giveBack(face);
+                face = upright;
+            }
+            mFaces.put(key, face);
+        }
+        return face;
+    }
+
+    /**
+     * Returns the NCHW blob for a batch of faces as described by spec.
+     * @param rgba - full RGBA frame the faces were detected in
+     */
+    public Mat blob(Mat rgba, List<Rect> rects, InputSpec spec) {
+        BlobKey key = new BlobKey(rects, spec);
+        Mat blob = mBlobs.get(key);
+        if (blob == null) {
+            List<Mat> faces = new ArrayList<>(rects.size());
+            for (Rect rect : rects)
+                faces.add(face(rgba, rect, spec.size));
+            blob = mArena.adopt(Dnn.blobFromImages(faces, spec.scale, spec.size, spec.mean,
+                    spec.swapRB, spec.crop));
+            mBlobs.put(key, blob);
+        }
+        return blob;
+    }
+
+    /** Drops every cached entry; crop buffers stay pooled for the next frame. */
+    public void clear() {
+        // the crops are the only Mats the cache keeps borrowed, anything else is a leak
+        for (Mat face : mFaces.values())
+            mArena.giveBack(face);
+        mFaces.clear();
+        mBlobs.clear();
+        mArena.endFrame();
+        mFrameId = -1;
+        mRotateCode = OrientationManager.NO_ROTATION;
+    }
+
+    /** Drops every cached entry and frees the pooled buffers. */
+    public void release() {
+        clear();
+        mArena.release();
+    }
+
+    private static class FaceKey {
+        private final Rect mRect;
+        private final Size mSize;
+
+        FaceKey(Rect rect, Size size) {
+            mRect = rect;
+            mSize = size;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mRect.hashCode() + mSize.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof FaceKey)) return false;
+            FaceKey it = (FaceKey) obj;
+            return mRect.equals(it.mRect) && mSize.equals(it.mSize);
+        }
+    }
+
+    private static class BlobKey {
+        private final Rect[] mRects;
+        private final InputSpec mSpec;
+
+        BlobKey(List<Rect> rects, InputSpec spec) {
+            mRects = rects.toArray(new Rect[0]);
+            mSpec = spec;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(mRects) + mSpec.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof BlobKey)) return false;
+            BlobKey it = (BlobKey) obj;
+            return Arrays.equals(mRects, it.mRects) && mSpec.equals(it.mSpec);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.app_cv;
+
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Base of the sources that replay recorded frames on a thread of their own.
+ *
+ * Frames are read as BGR, converted once to RGBA and gray into reused Mats and handed to
+ * the listener. With a frame rate of 0 frames are delivered as fast as the listener takes
+ * them, which is what throughput measurements want; otherwise delivery is paced.
+ *
+ * Plain Java and OpenCV only, so it also runs on a desktop JVM.
+ */
+public abstract class ReplayFrameSource implements FrameSource, Runnable {
+
+    private final double mFrameRate;
+    private final Mat mBgr = new Mat();
+    private final Mat mRgba = new Mat();
+    private final Mat mGray = new Mat();
+
+    private volatile Listener mListener;
+    private volatile boolean mRunning;
+    private volatile long mDeliveredFrames;
+    private Thread mThread;
+
+    /**
+     * @param frameRate - frames per second to pace delivery at, 0 for as fast as possible
+     */
+    protected ReplayFrameSource(double frameRate) {
+        mFrameRate = frameRate;
+    }
+
+    /** Opens the recording. @return false if it cannot be read */
+    protected abstract boolean open();
+
+    /** Reads the next frame as 8 bit BGR. @return false at the end of the recording */
+    protected abstract boolean read(Mat bgr);
+
+    protected abstract void close();
+
+    @Override
+    public synchronized void start(Listener listener) {
+        if (mThread != null)
+            return;
+        mListener = listener;
+        mRunning = true;
+        mThread = new Thread(this, getClass().getSimpleName());
+        mThread.start();
+    }
+
+    @Override
+    public void stop() {
+        mRunning = false;
+        try {
+            awaitCompletion();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Blocks until the whole recording was delivered or the source was stopped. */
+    public void awaitCompletion() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            thread = mThread;
+        }
+        if (thread != null && thread != Thread.currentThread())
+            thread.join();
+    }
+
+    public long getDeliveredFrames() {
+        return mDeliveredFrames;
+    }
+
+    @Override
+    public void run() {
+        Listener listener = mListener;
+        if (!open()) {
+            finish();
+            return;
+        }
+        long intervalNs = mFrameRate > 0 ? (long) (1e9 / mFrameRate) : 0;
+        long next = System.nanoTime();
+        boolean started = false;
+        try {
+            while (mRunning && read(mBgr)) {
+                if (mBgr.empty())
+                    continue;
+                Imgproc.cvtColor(mBgr, mRgba, Imgproc.COLOR_BGR2RGBA);
+                Imgproc.cvtColor(mBgr, mGray, Imgproc.COLOR_BGR2GRAY);
+                if (!started) {
+                    listener.onSourceStarted(mRgba.cols(), mRgba.rows());
+                    started = true;
+                }
+                if (intervalNs > 0) {
+                    long wait = next - System.nanoTime();
+                    if (wait > 0)
+                        Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                    next += intervalNs;
+                }
+                listener.onFrame(mRgba, mGray);
+                mDeliveredFrames++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+            if (started)
+                listener.onSourceStopped();
+            finish();
+        }
+    }
+
+    private void finish() {
+        mRunning = false;
+        mBgr.release();
+        mRgba.release();
+        mGray.release();
+        synchronized (this) {
+            mThread = null;
+        }
+    }
+}
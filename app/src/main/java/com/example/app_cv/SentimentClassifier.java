@@ -0,0 +1,78 @@
+package com.example.app_cv;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Emotion classifier on top of a sentiment TensorFlow session.
+ *
+ * Preprocessing is done by a SentimentPreprocessor straight into the direct buffer that is
+ * fed to TensorFlow, so scoring a face allocates nothing on the Java heap once the classifier
+ * is built. The buffers make an instance single-threaded; create one per inference thread.
+ */
+public class SentimentClassifier implements EmotionClassifier {
+
+    public static final String MODEL_PATH = "file:///android_asset/sentimental_model.pb";
+    /** Name of the graph in ModelMetrics. */
+    public static final String METRICS_NAME = "sentiment";
+
+    private static final String INPUT_NAME = "conv2d_29_input";
+    private static final String OUTPUT_NAME = "activation_48/Softmax";
+    private static final String[] OUTPUT_NAMES = new String[]{OUTPUT_NAME};
+
+    private static final long[] INPUT_DIMS = new long[]{1, SentimentPreprocessor.WIDTH,
+            SentimentPreprocessor.HEIGHT, SentimentPreprocessor.CHANNEL};
+
+    private final TensorFlowInferenceInterface mSession;
+    private final float[] mPredictions = new float[EMOTIONS.length];
+    private final SentimentPreprocessor mPreprocessor = new SentimentPreprocessor();
+    private ModelMetrics mMetrics;
+
+    public SentimentClassifier(TensorFlowInferenceInterface session) {
+        mSession = session;
+    }
+
+    /** Records the duration of every session run into metrics; null stops it. */
+    public void setMetrics(ModelMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Scores one face.
+     * @param gray - full gray frame
+     * @param face - face rectangle in gray
+     * @return softmax over EMOTIONS; the array is reused by the next call
+     */
+    @Override
+    public float[] classify(Mat gray, Rect face) {
+        FloatBuffer input = mPreprocessor.prepare(gray, face);
+
+        // the session belongs to one inference worker, no other thread runs it
+        long start = Core.getTickCount();
+        mSession.feed(INPUT_NAME, input, INPUT_DIMS);
+        mSession.run(OUTPUT_NAMES); //compute predictions
+        mSession.fetch(OUTPUT_NAME, mPredictions); //copy the output into the predictions array
+        if (mMetrics != null)
+            mMetrics.recordRun(METRICS_NAME, Core.getTickCount() - start);
+        return mPredictions;
+    }
+
+    /** Emotion with the highest score. */
+    public static String getLabel(float[] predictions) {
+        int best = 0;
+        for (int i = 1; i < predictions.length; i++) {
+            if (predictions[i] > predictions[best])
+                best = i;
+        }
+        return EMOTIONS[best];
+    }
+
+    @Override
+    public void release() {
+        mPreprocessor.release();
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.app_cv;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Turns a gray face into the 48x48 float input of the sentiment graph.
+ *
+ * The face is cropped and scaled by a single warpAffine into a reused Mat and converted to
+ * float straight into a direct buffer, so nothing is allocated per face. Single-threaded.
+ */
+public class SentimentPreprocessor {
+
+    public static final int HEIGHT = 48;
+    public static final int WIDTH = 48;
+    public static final int CHANNEL = 1;
+    private static final Size INPUT_SIZE = new Size(WIDTH, HEIGHT);
+
+    // crop + scale as one inverse affine map: src = M * dst
+    private final Mat mAffine = new Mat(2, 3, CvType.CV_64FC1);
+    private final double[] mAffineValues = new double[6];
+    private final Mat mResized = new Mat(HEIGHT, WIDTH, CvType.CV_8UC1);
+
+    // float input, the Mat writes straight into the buffer the graph reads
+    private final FloatBuffer mInput;
+    private final Mat mInputMat;
+
+    public SentimentPreprocessor() {
+        ByteBuffer input = ByteBuffer.allocateDirect(WIDTH * HEIGHT * CHANNEL * 4)
+                .order(ByteOrder.nativeOrder());
+        mInput = input.asFloatBuffer();
+        mInputMat = new Mat(HEIGHT, WIDTH, CvType.CV_32FC1, input);
+    }
+
+    /**
+     * @param gray - full gray frame
+     * @param face - face rectangle in gray
+     * @return the input, rewound; reused by the next call
+     */
+    public FloatBuffer prepare(Mat gray, Rect face) {
+        double sx = (double) face.width / WIDTH;
+        double sy = (double) face.height / HEIGHT;
+        // pixel centers of the 48x48 output map onto pixel centers of the face rect
+        mAffineValues[0] = sx;
+        mAffineValues[2] = face.x + 0.5 * sx - 0.5;
+        mAffineValues[4] = sy;
+        mAffineValues[5] = face.y + 0.5 * sy - 0.5;
+        mAffine.put(0, 0, mAffineValues);
+        Imgproc.warpAffine(gray, mResized, mAffine, INPUT_SIZE,
+                Imgproc.INTER_LINEAR | Imgproc.WARP_INVERSE_MAP);
+
+        // 0 for black and 255 for white, the graph expects raw intensities
+        mResized.convertTo(mInputMat, CvType.CV_32F);
+        mInput.rewind();
+        return mInput;
+    }
+
+    public void release() {
+        mAffine.release();
+        mResized.release();
+        mInputMat.release();
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.app_cv;
+
+import android.util.Log;
+import android.view.Surface;
+
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Draws processed camera frames straight into the surface buffer through ANativeWindow,
+ * instead of Utils.matToBitmap into a cached Bitmap and a Canvas draw.
+ *
+ * The destination rect comes precomputed from the camera view once per session; frames are
+ * resized into a preallocated Mat only when the view scales them, and the native side copies
+ * the rows into the locked buffer and clears the letterbox bands. Nothing is allocated per frame.
+ *
+ * When the view draws frames upright, the rotation and the front camera mirror happen here, on
+ * the frame already scaled to the destination size, in one pass where the two combine into a
+ * transpose or a flip. The frame handed in is never modified.
+ *
+ * Expects the whole RGBA frame, which is what CameraBridgeViewBase hands out as src.
+ */
+public class SurfaceFrameRenderer implements CameraBridgeViewBase.FrameRenderer {
+
+    private static final String TAG = "SurfaceFrameRenderer";
+
+    static {
+        System.loadLibrary("native-lib");
+    }
+
+    private long mWindow = 0;
+    private final Mat mScaled = new Mat();
+    private final Mat mOriented = new Mat();
+    private final Mat mMirrored = new Mat();
+    // size of the scaled frame before it is turned, dst with width and height swapped for 90 and 270
+    private Size mDstSize;
+    private boolean mScaling;
+    private int mRotation;
+    private boolean mMirror;
+    private int mDstX;
+    private int mDstY;
+    private volatile FrameTracer mTracer;
+
+    /** Times every blit into the RENDER stage; null stops it. */
+    public void setTracer(FrameTracer tracer) {
+        mTracer = tracer;
+    }
+
+    @Override
+    public void onSurfaceChanged(Surface surface, int surfaceWidth, int surfaceHeight,
+                                 android.graphics.Rect src, android.graphics.Rect dst,
+                                 int rotation, boolean mirror) {
+        releaseWindow();
+        mWindow = nativeAcquire(surface, surfaceWidth, surfaceHeight);
+        if (mWindow == 0)
+            Log.e(TAG, "Could not acquire a native window for the surface");
+        mDstX = dst.left;
+        mDstY = dst.top;
+        mRotation = rotation;
+        mMirror = mirror;
+        boolean swap = rotation == 90 || rotation == 270;
+        mDstSize = swap ? new Size(dst.height(), dst.width()) : new Size(dst.width(), dst.height());
+        mScaling = mDstSize.width != src.width() || mDstSize.height != src.height();
+    }
+
+    @Override
+    public boolean render(Mat rgba) {
+        if (mWindow == 0 || rgba.type() != CvType.CV_8UC4)
+            return false;
+        long start = FrameTracer.now();
+        Mat frame = rgba;
+        if (mScaling) {
+            Imgproc.resize(rgba, mScaled, mDstSize, 0, 0, Imgproc.INTER_LINEAR);
+            frame = mScaled;
+        }
+        frame = orient(frame);
+        boolean rendered = nativeRender(mWindow, frame.dataAddr(), (int) frame.step1(),
+                frame.cols(), frame.rows(), mDstX, mDstY);
+        FrameTracer tracer = mTracer;
+        if (tracer != null)
+            tracer.record(FrameTracer.RENDER, start);
+        return rendered;
+    }
+
+    // Clockwise rotation followed by the mirror; rotating by 90 and mirroring is a transpose
+    private Mat orient(Mat frame) {
+        switch (mRotation) {
+            case 90:
+                if (mMirror)
+                    Core.transpose(frame, mOriented);
+                else
+                    Core.rotate(frame, mOriented, Core.ROTATE_90_CLOCKWISE);
+                return mOriented;
+            case 180:
+                // rotating by 180 and mirroring flips the rows only
+                Core.flip(frame, mOriented, mMirror ? 0 : -1);
+                return mOriented;
+            case 270:
+                Core.rotate(frame, mOriented, Core.ROTATE_90_COUNTERCLOCKWISE);
+                if (!mMirror)
+                    return mOriented;
+                Core.flip(mOriented, mMirrored, 1);
+                return mMirrored;
+            default:
+                if (!mMirror)
+                    return frame;
+                Core.flip(frame, mOriented, 1);
+                return mOriented;
+        }
+    }
+
+    @Override
+    public void onSurfaceDestroyed() {
+        releaseWindow();
+        mScaled.release();
+        mOriented.release();
+        mMirrored.release();
+    }
+
+    private void releaseWindow() {
+        if (mWindow != 0) {
+            nativeRelease(mWindow);
+            mWindow = 0;
+        }
+    }
+
+    private static native long nativeAcquire(Surface surface, int width, int height);
+
+    private static native boolean nativeRender(long window, long data, int step, int cols, int rows,
+                                               int dstX, int dstY);
+
+    private static native void nativeRelease(long window);
+}
@@ -0,0 +1,39 @@
+package com.example.app_cv;
+
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+
+/** Replays a video file through VideoCapture. */
+public class VideoFrameSource extends ReplayFrameSource {
+
+    private final String mPath;
+    private VideoCapture mCapture;
+
+    /**
+     * @param path - any file the OpenCV video backends can decode
+     * @param frameRate - frames per second to pace delivery at, 0 for as fast as possible
+     */
+    public VideoFrameSource(String path, double frameRate) {
+        super(frameRate);
+        mPath = path;
+    }
+
+    @Override
+    protected boolean open() {
+        mCapture = new VideoCapture(mPath);
+        return mCapture.isOpened();
+    }
+
+    @Override
+    protected boolean read(Mat bgr) {
+        return mCapture.read(bgr);
+    }
+
+    @Override
+    protected void close() {
+        if (mCapture != null) {
+            mCapture.release();
+            mCapture = null;
+        }
+    }
+}
@@ -1,160 +1,10 @@
 package com.example.app_cv;
 
-import android.content.Context;
-import android.content.pm.ActivityInfo;
-import android.content.res.AssetManager;
-import android.os.Bundle;
-import android.util.Log;
-import android.view.WindowManager;
-
-import org.opencv.android.CameraBridgeViewBase;
-import org.opencv.core.Core;
-import org.opencv.core.Mat;
-import org.opencv.core.Rect;
-import org.opencv.core.Scalar;
-import org.opencv.core.Size;
-import org.opencv.dnn.Dnn;
-import org.opencv.dnn.Net;
-import org.opencv.imgproc.Imgproc;
-import org.opencv.objdetect.CascadeClassifier;
-
-import java.io.BufferedInputStream;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-
-public class age_detect extends face_detect implements CameraBridgeViewBase.CvCameraViewListener2 {
-    public Net mAgeNet;
-    private static final String[] AGES =
-            new String[]{"0-2", "4-6", "8-13", "15-20", "25-32", "38-43", "48-53", "60+"};
+/** Face screen that only estimates age; models come warm from InferenceEngine. */
+public class age_detect extends face_detect {
 
     @Override
-    protected void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
-        initWindowSettings();
-        setContentView(R.layout.face_detect);
-        initDNN();
-        initClassifier();
+    protected boolean isHeadEnabled(int attribute) {
+        return attribute == AttributeStore.AGE;
     }
-    public void initWindowSettings() {
-        getWindow().setFlags(WindowManager.LayoutParams.FLAG_FULLSCREEN,
-                WindowManager.LayoutParams.FLAG_FULLSCREEN);
-        getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
-        setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_UNSPECIFIED);
-    }
-
-    private void initClassifier() {
-        try {
-            // Load LBP front face detector
-            InputStream is = getResources().openRawResource(R.raw.lbpcascade_frontalface);
-            File cascadeDir = getDir("cascade", Context.MODE_APPEND);
-            File mCascadeFile = new File(cascadeDir, "lbpcascade_frontalface.xml");
-            FileOutputStream os = new FileOutputStream(mCascadeFile);
-
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            while ((bytesRead = is.read(buffer)) != -1) {
-                os.write(buffer, 0, bytesRead);
-            }
-            is.close();
-            os.close();
-
-            // Load the cascade classifier
-            classifier = new CascadeClassifier(mCascadeFile.getAbsolutePath());
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    @Override
-    public void onCameraViewStarted(int width, int height) {
-        mGray = new Mat();
-        mRgba = new Mat();
-    }
-
-    @Override
-    public void onCameraViewStopped() {
-        mGray.release();
-        mRgba.release();
-    }
-
-    private void initDNN() {
-        String age_proto = getPath("deploy_age.prototxt", this);
-        String age_weights = getPath("age_net.caffemodel", this);
-        Log.i(TAG, "initDNN| Age Proto : " + age_proto + ", Age Weights : " + age_weights);
-
-        mAgeNet = Dnn.readNetFromCaffe(age_proto, age_weights);
-
-        if (mAgeNet.empty()) {
-            Log.i(TAG, "Age Network loading failed");
-        } else {
-            Log.i(TAG, "Age Network loading success");
-        }
-
-    }
-
-    public String analyzeAge(Mat mRgba, Rect face) {
-        try {
-            Mat capturedFace = new Mat(mRgba, face);
-            //Resizing pictures to resolution of Caffe model
-            Imgproc.resize(capturedFace, capturedFace, new Size(227, 227));
-            //Converting RGBA to BGR
-            Imgproc.cvtColor(capturedFace, capturedFace, Imgproc.COLOR_RGBA2BGR);
-
-            //Forwarding picture through Dnn
-            Mat inputBlob = Dnn.blobFromImage(capturedFace, 1.0f,
-                    new Size(227, 227),
-                    new Scalar(78.4263377603, 87.7689143744, 114.895847746),
-                    false, false);
-
-            mAgeNet.setInput(inputBlob, "data");
-            Mat probs = mAgeNet.forward("prob").reshape(1, 1);
-            Core.MinMaxLocResult mm = Core.minMaxLoc(probs); //Getting largest softmax output
-
-            double result = mm.maxLoc.x; //Result of age recognition prediction
-            Log.i(TAG, "Age result is: " + result);
-            return AGES[(int) result];
-        } catch (Exception e) {
-            Log.e(TAG, "Error processing age", e);
-        }
-        return null;
-    }
-
-    private static String getPath(String file, Context context) {
-        AssetManager assetManager = context.getAssets();
-        BufferedInputStream inputStream = null;
-        try {
-            // Read data from assets.
-            inputStream = new BufferedInputStream(assetManager.open(file));
-            byte[] data = new byte[inputStream.available()];
-            inputStream.read(data);
-            inputStream.close();
-            // Create copy file in storage.
-            File outFile = new File(context.getFilesDir(), file);
-            FileOutputStream os = new FileOutputStream(outFile);
-            os.write(data);
-            os.close();
-            // Return a path to file which may be read in common way.
-            Log.i(TAG, outFile.getAbsolutePath());
-            return outFile.getAbsolutePath();
-        } catch (IOException ex) {
-            Log.i(TAG, "Failed to upload a file");
-        }
-        return "";
-    }
-
-    @Override
-    public void onPause() {
-        super.onPause();
-        if (cameraView != null)
-            cameraView.disableView();
-    }
-
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        cameraView.disableView();
-    }
-
 }
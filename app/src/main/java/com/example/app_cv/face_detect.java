@@ -1,15 +1,9 @@
 package com.example.app_cv;
 
-import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
-import android.content.res.AssetManager;
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.ColorMatrix;
-import android.graphics.ColorMatrixColorFilter;
-import android.graphics.Paint;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.WindowManager;
 import android.widget.TextView;
@@ -17,47 +11,44 @@ import android.widget.TextView;
 import androidx.appcompat.app.AppCompatActivity;
 
 import org.opencv.android.CameraBridgeViewBase;
-import org.opencv.android.Utils;
-import org.opencv.core.Core;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfRect;
-import org.opencv.core.Point;
-import org.opencv.core.Rect;
-import org.opencv.core.Scalar;
-import org.opencv.core.Size;
-import org.opencv.dnn.Dnn;
-import org.opencv.dnn.Net;
-import org.opencv.imgproc.Imgproc;
 import org.opencv.objdetect.CascadeClassifier;
-import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.Arrays;
+import java.util.List;
 
-public class face_detect extends AppCompatActivity implements
-        CameraBridgeViewBase.CvCameraViewListener2 {
+public class face_detect extends AppCompatActivity implements FrameSource.Listener {
 
     public CameraBridgeViewBase cameraView;
+    private FrameSource mFrameSource;
     public CascadeClassifier classifier;
     public Mat mGray;
     public Mat mRgba;
-    private int mAbsoluteFaceSize = 0;
+    // written on the UI thread, read by the camera thread for every frame
+    private volatile FramePipeline mPipeline;
+    private FaceProcessor mProcessor;
 
-    public static final String TAG = "Test";
+    // boxes and labels go on a separate layer refreshed with the display, the preview
+    // frame is shown untouched
+    private FaceOverlayView mOverlay;
+    private OrientationManager mOrientation;
+
+    private static final int PIPELINE_QUEUE_CAPACITY = 1;
 
-    private Net mAgeNet;
-    private static final String[] AGES =
-            new String[]{"0-2", "4-6", "8-13", "15-20", "25-32", "38-43", "48-53", "60+"};
+    // per-stage latency of every frame, dumped to the app's external files dir when the camera stops
+    private static final String TRACE_FILE = "frame_trace.txt";
+    private final FrameTracer mTracer = new FrameTracer();
 
-    private Net mGenderNet;
-    private static final String[] GENDERS = new String[]{"Male", "Female"};
+    // run times and per-layer cost of the models, shared by every screen through the engine
+    private static final String METRICS_FILE = "model_metrics.txt";
+    private ModelMetrics mModelMetrics;
+
+    public static final String TAG = "Test";
 
-    private static final String[] EMOTIONS =
-            new String[]{"angry", "disgust", "fear", "happy", "sad", "surprise", "neutral"};
+    // models are owned by the application-wide engine and survive switching screens
+    private InferenceEngine mEngine;
+    private long mCreatedMillis;
 
     static {
         System.loadLibrary("opencv_java3");
@@ -67,19 +58,6 @@ public class face_detect extends AppCompatActivity implements
         System.loadLibrary("tensorflow_inference");
     }
 
-    // sentimental variables initialization
-    private String MODEL_PATH = "file:///android_asset/sentimental_model.pb";
-    private String INPUT_NAME = "conv2d_29_input";
-    private String OUTPUT_NAME = "activation_48/Softmax";
-
-    private TensorFlowInferenceInterface tf;
-
-    float[] PREDICTIONS = new float[7];
-
-    private static final int HEIGHT = 48;
-    private static final int WIDTH = 48;
-    private static final int CHANNEL = 1;
-
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -90,14 +68,26 @@ public class face_detect extends AppCompatActivity implements
         tv.setText(i.getStringExtra("data"));
         cameraView = (CameraBridgeViewBase) findViewById(R.id.camera_view);
 //        cameraView.setVisibility(CameraBridgeViewBase.VISIBLE);
-        cameraView.setCvCameraViewListener(this);
         cameraView.setCameraIndex(CameraBridgeViewBase.CAMERA_ID_FRONT); // use front camera
 //        cameraView.setCameraIndex(CameraBridgeViewBase.CAMERA_ID_BACK); // use front camera
-        cameraView.enableView();
+        // the view turns the preview upright and mirrors it at draw time, the frames stay as delivered
+        cameraView.setDrawUpright(true);
+        // frames go straight into the surface buffer, no Bitmap copy
+        SurfaceFrameRenderer renderer = new SurfaceFrameRenderer();
+        renderer.setTracer(mTracer);
+        cameraView.setFrameRenderer(renderer);
+        mOverlay = (FaceOverlayView) findViewById(R.id.face_overlay);
+        mOverlay.setTracer(mTracer);
+        CameraFrameSource cameraSource = new CameraFrameSource(cameraView);
+        cameraSource.setTracer(mTracer);
+        mFrameSource = cameraSource;
+        mFrameSource.start(this);
         // -------------------------
-        initClassifier();
-        initDNN();
-        initTF();
+        // models load and warm up in the background while the preview already runs, once
+        // per process; the pipeline stages pick each one up as soon as it is published
+        mCreatedMillis = SystemClock.elapsedRealtime();
+        mEngine = InferenceEngine.getInstance(this);
+        mModelMetrics = mEngine.getModelMetrics();
         // -------------------------
     }
 
@@ -108,323 +98,117 @@ public class face_detect extends AppCompatActivity implements
         setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_UNSPECIFIED);
     }
 
-    // ------------------------------------------------
-
-    private void initTF(){
-        tf = new TensorFlowInferenceInterface(getAssets(), MODEL_PATH);
-    }
-
-    private String analyzeSentiment(final Mat mGray, final Rect face) {
-        try{
-            Mat capturedFace = new Mat(mGray, face);
-
-            Imgproc.cvtColor(capturedFace, capturedFace, Imgproc.COLOR_GRAY2RGBA, 4);
-            Bitmap bmp = Bitmap.createBitmap(capturedFace.cols(), capturedFace.rows(), Bitmap.Config.ARGB_8888);
-            Utils.matToBitmap(capturedFace, bmp);
-            Bitmap grayImage = toGrayscale(bmp);
-            Bitmap resizedImage = getResizedBitmap(grayImage,WIDTH,HEIGHT);
-
-            int[] pixelArray = new int[resizedImage.getWidth()*resizedImage.getHeight()];
-            resizedImage.getPixels(pixelArray, 0, resizedImage.getWidth(), 0, 0,
-                    resizedImage.getWidth(), resizedImage.getHeight());
-            float[] normalized_pixels = new float[pixelArray.length];
-
-            for (int i=0; i < pixelArray.length; i++) {
-                // 0 for white and 255 for black
-                int b = pixelArray[i] & 0xff;
-
-                normalized_pixels[i] = (float)(b);
+    @Override
+    public void onSourceStarted(int width, int height) {
+        mGray = new Mat();
+        mRgba = new Mat();
+        // sensor and display rotation of the open camera are read once per camera session
+        mOrientation = CameraOrientation.forView(cameraView);
+        // the stages' work is plain Java, the screen only supplies the models and picks the heads
+        mProcessor = new FaceProcessor(mOrientation, null, mEngine.getWorkerPool(), mTracer) {
+            @Override
+            protected CascadeClassifier getCascade() {
+                // published once the warm-up is done
+                classifier = mEngine.getCascade();
+                if (classifier == null && mEngine.isReady())
+                    Log.e(TAG, "Detection is not selected!");
+                return classifier;
             }
 
-//            Log.d("pixel_values", String.valueOf(normalized_pixels[0]));
-
-            //Pass input into the TensorFlow
-            tf.feed(INPUT_NAME, normalized_pixels, 1, WIDTH, HEIGHT, CHANNEL);
-            tf.run(new String[]{OUTPUT_NAME}); //compute predictions
-            tf.fetch(OUTPUT_NAME, PREDICTIONS); //copy the output into the PREDICTIONS array
-
-            Log.i(TAG, Arrays.toString(PREDICTIONS));
-
-        } catch (Exception e) {
-            Log.e(TAG, "Error processing sentiment", e);
-        }
-
-        Object[] results = argmax(PREDICTIONS); //Obtained highest prediction
-        int class_index = (Integer) results[0];
-        final String pred_emotion = EMOTIONS[class_index];
-
-        Log.i(TAG, "pred_emotion: " + pred_emotion);
-
-        return pred_emotion;
-    }
-
-    public Bitmap toGrayscale(Bitmap bmpOriginal)
-    {
-        int width, height;
-        height = bmpOriginal.getHeight();
-        width = bmpOriginal.getWidth();
-
-        Bitmap bmpGrayscale = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-        Canvas c = new Canvas(bmpGrayscale);
-        Paint paint = new Paint();
-        ColorMatrix cm = new ColorMatrix();
-        cm.setSaturation(0);
-        ColorMatrixColorFilter f = new ColorMatrixColorFilter(cm);
-        paint.setColorFilter(f);
-        c.drawBitmap(bmpOriginal, 0, 0, paint);
-
-        return bmpGrayscale;
-    }
-
-    public Bitmap getResizedBitmap(Bitmap image, int bitmapWidth, int bitmapHeight) {
-        return Bitmap.createScaledBitmap(image, bitmapWidth, bitmapHeight, true);
-    }
-
-    public static Object[] argmax(float[] array) {
-        int best = -1;
-        float best_confidence = 0.0f;
-        for (int i = 0; i < array.length; i++) {
-            float value = array[i];
-            if (value > best_confidence) {
-                best_confidence = value;
-                best = i;
+            @Override
+            protected boolean isHeadEnabled(int attribute) {
+                return face_detect.this.isHeadEnabled(attribute);
             }
-        }
-        return new Object[]{best, best_confidence};
-    }
-
-    // ------------------------------------------------
-
-    private void initDNN() {
-        // ------------------------------------------------
-        String age_proto = getPath("deploy_age.prototxt", this);
-        String age_weights = getPath("age_net.caffemodel", this);
-        Log.i(TAG, "initDNN| Age Proto : " + age_proto + ", Age Weights : " + age_weights);
 
-        mAgeNet = Dnn.readNetFromCaffe(age_proto, age_weights);
-
-        // ------------------------------------------------
-
-        String gender_proto = getPath("deploy_gender.prototxt", this);
-        String gender_weights = getPath("gender_net.caffemodel", this);
-        Log.i(TAG, "initDNN| Gender Proto : " + gender_proto + ", Gender Weights : " + gender_weights);
-
-        mGenderNet = Dnn.readNetFromCaffe(gender_proto, gender_weights);
-
-        // ------------------------------------------------
-
-        if (mAgeNet.empty()) {
-            Log.i(TAG, "Age Network loading failed");
-        } else {
-            Log.i(TAG, "Age Network loading success");
-        }
-
-        if (mGenderNet.empty()) {
-            Log.i(TAG, "Gender Network loading failed");
-        } else {
-            Log.i(TAG, "Gender Network loading success");
-        }
-    }
-
-    // ------------------------------------------------
-
-    private void initClassifier() {
-        try {
-            // Load LBP front face detector
-            InputStream is = getResources().openRawResource(R.raw.lbpcascade_frontalface);
-            File cascadeDir = getDir("cascade", Context.MODE_APPEND);
-            File mCascadeFile = new File(cascadeDir, "lbpcascade_frontalface.xml");
-            FileOutputStream os = new FileOutputStream(mCascadeFile);
-
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            while ((bytesRead = is.read(buffer)) != -1) {
-                os.write(buffer, 0, bytesRead);
+            // time to first annotated frame, the number the background warm-up is meant to lower
+            @Override
+            protected void onFirstLabel() {
+                Log.i(TAG, "First annotated frame " + (SystemClock.elapsedRealtime() - mCreatedMillis)
+                        + " ms after launch, models ready after " + mEngine.getWarmupMillis() + " ms");
             }
-            is.close();
-            os.close();
-
-            // Load the cascade classifier
-            classifier = new CascadeClassifier(mCascadeFile.getAbsolutePath());
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    // ------------------------------------------------
-
-    private String analyzeAge(Mat mRgba, Rect face) {
-        try {
-            Mat capturedFace = new Mat(mRgba, face);
-
-            //Resizing pictures to resolution of Caffe model
-            Imgproc.resize(capturedFace, capturedFace, new Size(227, 227));
-            //Converting RGBA to BGR
-            Imgproc.cvtColor(capturedFace, capturedFace, Imgproc.COLOR_RGBA2BGR);
-
-            //Forwarding picture through Dnn
-            Mat inputBlob = Dnn.blobFromImage(capturedFace, 1.0f,
-                    new Size(227, 227),
-                    new Scalar(78.4263377603, 87.7689143744, 114.895847746),
-                    false, false);
-
-            mAgeNet.setInput(inputBlob, "data");
-            Mat probs = mAgeNet.forward("prob").reshape(1, 1);
-            Core.MinMaxLocResult mm = Core.minMaxLoc(probs); //Getting largest softmax output
-
-            double result = mm.maxLoc.x; //Result of age recognition prediction
-            Log.i(TAG, "Age result is: " + result);
-            return AGES[(int) result];
-        } catch (Exception e) {
-            Log.e(TAG, "Error processing age", e);
-        }
-        return null;
+        };
+        final FramePipeline pipeline = new FramePipeline(mProcessor, PIPELINE_QUEUE_CAPACITY, mTracer);
+        mPipeline = pipeline;
+        mPipeline.start();
+        mOverlay.setFrameTransform(cameraView.getFrameToViewMatrix());
+        mOverlay.setSource(new FaceOverlayView.Source() {
+            @Override
+            public List<FaceAnnotation> getAnnotations() {
+                return pipeline.getLatestOverlay();
+            }
+        });
     }
 
-    private String analyzeGender(Mat mRgba, Rect face) {
-        try {
-            Mat capturedFace = new Mat(mRgba, face);
-
-            //Resizing pictures to resolution of Caffe model
-            Imgproc.resize(capturedFace, capturedFace, new Size(227, 227));
-            //Converting RGBA to BGR
-            Imgproc.cvtColor(capturedFace, capturedFace, Imgproc.COLOR_RGBA2BGR);
-
-            //Forwarding picture through Dnn
-            Mat inputBlob = Dnn.blobFromImage(capturedFace, 1.0f,
-                    new Size(227, 227),
-                    new Scalar(78.4263377603, 87.7689143744, 114.895847746),
-                    false, false);
-
-            mGenderNet.setInput(inputBlob, "data");
-            Mat probs = mGenderNet.forward("prob").reshape(1, 1);
-            Core.MinMaxLocResult mm = Core.minMaxLoc(probs); //Getting largest softmax output
-
-            //Result of gender recognition prediction. 0 = MALE, 1 = FEMALE
-            double result = mm.maxLoc.x;
-            Log.i(TAG, "Gender result is: " + result);
-            return GENDERS[(int) result];
-        } catch (Exception e) {
-            Log.e(TAG, "Error processing gender", e);
+    @Override
+    public void onSourceStopped() {
+        mOverlay.setSource(null);
+        boolean stopped = true;
+        if (mPipeline != null) {
+            stopped = mPipeline.stop();
+            mPipeline = null;
         }
-        return null;
+        // a stage still finishing its call keeps using the processor, it is left to the GC then
+        if (mProcessor != null && stopped)
+            mProcessor.release();
+        mProcessor = null;
+        mGray.release();
+        mRgba.release();
+        dumpTrace();
     }
 
-    // Upload file to storage and return a path.
-    private static String getPath(String file, Context context) {
-        AssetManager assetManager = context.getAssets();
-        BufferedInputStream inputStream = null;
+    private void dumpTrace() {
+        Log.i(TAG, "Frame latency (us):\n" + mTracer.summary());
+        Log.i(TAG, "Model metrics:\n" + mModelMetrics.summary());
+        Log.i(TAG, "Mat arenas: " + MatArena.getLiveBytes() / 1024 + " KB live, "
+                + MatArena.getPeakBytes() / 1024 + " KB peak");
+        File dir = getExternalFilesDir(null);
+        if (dir == null)
+            dir = getFilesDir();
         try {
-            // Read data from assets.
-            inputStream = new BufferedInputStream(assetManager.open(file));
-            byte[] data = new byte[inputStream.available()];
-            inputStream.read(data);
-            inputStream.close();
-            // Create copy file in storage.
-            File outFile = new File(context.getFilesDir(), file);
-            FileOutputStream os = new FileOutputStream(outFile);
-            os.write(data);
-            os.close();
-            // Return a path to file which may be read in common way.
-            Log.i(TAG, outFile.getAbsolutePath());
-            return outFile.getAbsolutePath();
-        } catch (IOException ex) {
-            Log.i(TAG, "Failed to upload a file");
+            mTracer.dump(new File(dir, TRACE_FILE));
+            mModelMetrics.dump(new File(dir, METRICS_FILE));
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write the frame trace and model metrics", e);
         }
-        return "";
-    }
-
-    @Override
-    public void onCameraViewStarted(int width, int height) {
-        mGray = new Mat();
-        mRgba = new Mat();
-    }
-
-    @Override
-    public void onCameraViewStopped() {
-        mGray.release();
-        mRgba.release();
+        mTracer.reset();
     }
 
     @Override
-    public Mat onCameraFrame(CameraBridgeViewBase.CvCameraViewFrame inputFrame) {
-        mRgba = inputFrame.rgba();
-        mGray = inputFrame.gray();
-
-        // -------Rotate the preview the streaming-------
-        Mat rotateMat = Imgproc.getRotationMatrix2D(
-                new Point(mGray.rows() / 2, mGray.cols() / 2), 90, 1);
-        Imgproc.warpAffine(mRgba, mRgba, rotateMat, mRgba.size());
-        Imgproc.warpAffine(mGray, mGray, rotateMat, mGray.size());
-
-        Core.flip(mRgba, mRgba, 1);
-        Core.flip(mGray, mGray, 1);
-        // -------Rotate the preview the streaming-------
-
-        float mRelativeFaceSize = 0.2f;
-        if (mAbsoluteFaceSize == 0) {
-            int height = mGray.rows();
-            if (Math.round(height * mRelativeFaceSize) > 0) {
-                mAbsoluteFaceSize = Math.round(height * mRelativeFaceSize);
-            }
-        }
-        // mAbsoluteFaceSize is nearly 20% of height. (rows)
+    public Mat onFrame(Mat rgba, Mat gray) {
+        mRgba = rgba;
+        mGray = gray;
 
-        MatOfRect faces = new MatOfRect();
-
-        // face detector
-        if (classifier != null) {
-            classifier.detectMultiScale(mGray, faces, 1.1, 2, 2,
-                    new Size(mAbsoluteFaceSize, mAbsoluteFaceSize), new Size());
-        }
-        else {
-            Log.e(TAG, "Detection is not selected!");
-        }
-
-        // plot rectangle for each detected face
-        Rect[] facesArray = faces.toArray();
-        Scalar faceRectColor = new Scalar(0, 255, 0, 255);
-        for (Rect faceRect : facesArray) {
-            String predict_age = "";
-            String predict_gender = "";
-            String predict_emotion = "";
-            try{
-                predict_age = analyzeAge(mRgba, faceRect);
-                predict_gender = analyzeGender(mRgba, faceRect);
-                predict_emotion = analyzeSentiment(mGray, faceRect);
-            } catch (Exception e) {
-                Log.e(TAG, "Error", e);
-            }
-
-            Imgproc.rectangle(mRgba, faceRect.tl(), faceRect.br(), faceRectColor, 3);
-
-            Imgproc.putText(mRgba, predict_emotion, new Point(faceRect.x, faceRect.y+faceRect.height),
-                    Core.FONT_HERSHEY_SIMPLEX, 2, new Scalar(255, 255, 0), 6);
-
-            // top left
-            Imgproc.putText(mRgba, predict_age, faceRect.tl(),
-                    Core.FONT_HERSHEY_SIMPLEX, 2, new Scalar(255, 255, 0), 4);
-
-            // bottom right
-            Imgproc.putText(mRgba, predict_gender, faceRect.br(),
-                    Core.FONT_HERSHEY_SIMPLEX, 2, new Scalar(255, 255, 0), 4);
-        }
+        // The frame is left as delivered, the view turns it upright when it draws it; only the
+        // pipeline's gray copy gets rotated. Detection and inference run on the pipeline threads,
+        // the camera thread only hands the frame over; the overlay layer draws the results.
+        FramePipeline pipeline = mPipeline;
+        if (pipeline != null)
+            pipeline.submit(mRgba, mGray);
 
         return mRgba;
     }
 
+    /**
+     * Whether this screen runs and shows an attribute head: AttributeStore.AGE, GENDER or EMOTION.
+     * Asked on the infer stage for every frame; face_detect runs all of them.
+     */
+    protected boolean isHeadEnabled(int attribute) {
+        return true;
+    }
+
     // -----------------------------------
     @Override
     public void onPause() {
         super.onPause();
-        if (cameraView != null)
-            cameraView.disableView();
+        if (mFrameSource != null)
+            mFrameSource.stop();
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        cameraView.disableView();
+        if (mFrameSource != null)
+            mFrameSource.stop();
     }
     // -----------------------------------
 }
\ No newline at end of file
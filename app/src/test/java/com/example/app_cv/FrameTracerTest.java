@@ -0,0 +1,113 @@
+package com.example.app_cv;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Histogram and percentiles of FrameTracer, fed with known tick values so no native
+ * OpenCV call is made.
+ */
+public class FrameTracerTest {
+
+    // one tick per microsecond
+    private static final double MICRO_TICKS = 1e6;
+
+    @Test
+    public void bucket_valuesBelowEightHaveTheirOwnBucket() {
+        for (int value = 0; value < 8; value++) {
+            assertEquals(value, FrameTracer.Histogram.bucket(value));
+            assertEquals(value, FrameTracer.Histogram.upperBound(value));
+        }
+    }
+
+    @Test
+    public void bucket_powerOfTwoIsSplitIntoEight() {
+        // 2^4..2^5-1 in buckets of two values each
+        assertEquals(16, FrameTracer.Histogram.bucket(16));
+        assertEquals(16, FrameTracer.Histogram.bucket(17));
+        assertEquals(17, FrameTracer.Histogram.bucket(18));
+        assertEquals(23, FrameTracer.Histogram.bucket(31));
+        assertEquals(17, FrameTracer.Histogram.upperBound(16));
+        // 960..1023 share a bucket
+        assertEquals(63, FrameTracer.Histogram.bucket(960));
+        assertEquals(63, FrameTracer.Histogram.bucket(1000));
+        assertEquals(1023, FrameTracer.Histogram.upperBound(63));
+    }
+
+    @Test
+    public void bucket_bucketsAreContiguous() {
+        for (int b = 0; b < FrameTracer.Histogram.BUCKETS - 1; b++) {
+            long upper = FrameTracer.Histogram.upperBound(b);
+            assertEquals(b, FrameTracer.Histogram.bucket(upper));
+            assertEquals(b + 1, FrameTracer.Histogram.bucket(upper + 1));
+        }
+    }
+
+    @Test
+    public void bucket_largeValuesGoToTheLastBucket() {
+        int last = FrameTracer.Histogram.BUCKETS - 1;
+        assertEquals(last, FrameTracer.Histogram.bucket(1L << 31));
+        assertEquals(last, FrameTracer.Histogram.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentiles_ofOneToHundredMicros() {
+        FrameTracer tracer = new FrameTracer(MICRO_TICKS);
+        for (int micros = 1; micros <= 100; micros++)
+            tracer.record(FrameTracer.DETECT, 1000, 1000 + micros);
+
+        assertEquals(100, tracer.getCount(FrameTracer.DETECT));
+        assertEquals(100, tracer.getMaxMicros(FrameTracer.DETECT));
+        // the 50th value sits in the 48..51 bucket, reported as its upper bound
+        assertEquals(51, tracer.getPercentileMicros(FrameTracer.DETECT, 50));
+        // the 95th value closes the 88..95 bucket
+        assertEquals(95, tracer.getPercentileMicros(FrameTracer.DETECT, 95));
+        // the 96..103 bucket is capped at the largest value recorded
+        assertEquals(100, tracer.getPercentileMicros(FrameTracer.DETECT, 99));
+    }
+
+    @Test
+    public void percentiles_ofExactSmallValues() {
+        FrameTracer tracer = new FrameTracer(MICRO_TICKS);
+        for (int i = 0; i < 90; i++)
+            tracer.record(FrameTracer.RENDER, 0, 2);
+        for (int i = 0; i < 9; i++)
+            tracer.record(FrameTracer.RENDER, 0, 5);
+        tracer.record(FrameTracer.RENDER, 0, 7);
+
+        assertEquals(2, tracer.getPercentileMicros(FrameTracer.RENDER, 50));
+        assertEquals(5, tracer.getPercentileMicros(FrameTracer.RENDER, 95));
+        assertEquals(5, tracer.getPercentileMicros(FrameTracer.RENDER, 99));
+        assertEquals(7, tracer.getPercentileMicros(FrameTracer.RENDER, 100));
+    }
+
+    @Test
+    public void record_convertsTicksToMicros() {
+        FrameTracer tracer = new FrameTracer(2e6);
+        assertEquals(1300, tracer.record(FrameTracer.CAPTURE, 1000, 1300));
+        assertEquals(150, tracer.getMaxMicros(FrameTracer.CAPTURE));
+        assertEquals(150, tracer.getPercentileMicros(FrameTracer.CAPTURE, 50));
+    }
+
+    @Test
+    public void stages_areRecordedSeparately() {
+        FrameTracer tracer = new FrameTracer(MICRO_TICKS);
+        tracer.record(FrameTracer.OVERLAY, 0, 40);
+
+        assertEquals(1, tracer.getCount(FrameTracer.OVERLAY));
+        assertEquals(0, tracer.getCount(FrameTracer.END_TO_END));
+        assertEquals(0, tracer.getPercentileMicros(FrameTracer.END_TO_END, 50));
+    }
+
+    @Test
+    public void reset_forgetsSamples() {
+        FrameTracer tracer = new FrameTracer(MICRO_TICKS);
+        tracer.record(FrameTracer.DRAW, 0, 500);
+        tracer.reset();
+
+        assertEquals(0, tracer.getCount(FrameTracer.DRAW));
+        assertEquals(0, tracer.getMaxMicros(FrameTracer.DRAW));
+        assertEquals(0, tracer.getPercentileMicros(FrameTracer.DRAW, 99));
+    }
+}
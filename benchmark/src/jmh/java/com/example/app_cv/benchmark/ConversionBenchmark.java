@@ -0,0 +1,59 @@
+package com.example.app_cv.benchmark;
+
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+
+/** NV21 camera buffer to the RGBA and gray Mats handed to onCameraFrame. */
+@State(Scope.Thread)
+public class ConversionBenchmark {
+
+    private List<RecordedFrames.Frame> mFrames;
+    private RecordedFrames.Cursor mCursor;
+    private Mat mRgba;
+    private Mat mGray;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mFrames = RecordedFrames.load();
+        mCursor = new RecordedFrames.Cursor(mFrames);
+        // only now is the native library loaded
+        mRgba = new Mat();
+        mGray = new Mat();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        RecordedFrames.release(mFrames);
+        mRgba.release();
+        mGray.release();
+    }
+
+    @Benchmark
+    public Mat nv21ToRgba() {
+        Imgproc.cvtColor(mCursor.next().nv21, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+        return mRgba;
+    }
+
+    @Benchmark
+    public Mat nv21ToGray() {
+        Imgproc.cvtColor(mCursor.next().nv21, mGray, Imgproc.COLOR_YUV2GRAY_NV21);
+        return mGray;
+    }
+
+    // what JavaCameraView hands out as gray(): a header on the luma rows
+    @Benchmark
+    public Mat nv21GraySubmat() {
+        RecordedFrames.Frame frame = mCursor.next();
+        Mat gray = frame.nv21.submat(0, frame.gray.rows(), 0, frame.gray.cols());
+        gray.release();
+        return gray;
+    }
+}
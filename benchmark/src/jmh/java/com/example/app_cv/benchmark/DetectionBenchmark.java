@@ -0,0 +1,57 @@
+package com.example.app_cv.benchmark;
+
+import com.example.app_cv.FaceDetector;
+
+import org.opencv.core.Rect;
+import org.opencv.objdetect.CascadeClassifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Collections;
+import java.util.List;
+
+/** LBP cascade over whole frames and around known faces, at full and reduced resolution. */
+@State(Scope.Thread)
+public class DetectionBenchmark {
+
+    /** Rows the cascade runs on, 0 for the recorded resolution. */
+    @Param({"0", "240"})
+    public int detectionHeight;
+
+    private List<RecordedFrames.Frame> mFrames;
+    private RecordedFrames.Cursor mCursor;
+    private FaceDetector mFullScan;
+    private FaceDetector mRoiScan;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mFrames = RecordedFrames.load();
+        mCursor = new RecordedFrames.Cursor(mFrames);
+        CascadeClassifier cascade = RecordedFrames.cascade();
+        mFullScan = new FaceDetector(cascade, 0.2f, 1, 0.5, detectionHeight);
+        mRoiScan = new FaceDetector(cascade, 0.2f, Integer.MAX_VALUE, 0.5, detectionHeight);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        RecordedFrames.release(mFrames);
+        mFullScan.reset();
+        mRoiScan.reset();
+    }
+
+    @Benchmark
+    public Rect[] fullFrame() {
+        return mFullScan.detect(mCursor.next().gray, Collections.<Rect>emptyList());
+    }
+
+    @Benchmark
+    public Rect[] aroundKnownFaces() {
+        RecordedFrames.Frame frame = mCursor.next();
+        return mRoiScan.detect(frame.gray, frame.faces);
+    }
+}
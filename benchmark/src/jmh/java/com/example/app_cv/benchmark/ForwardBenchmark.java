@@ -0,0 +1,85 @@
+package com.example.app_cv.benchmark;
+
+import com.example.app_cv.CaffeAttributeHead;
+import com.example.app_cv.OrientationManager;
+import com.example.app_cv.PreprocessCache;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.dnn.Dnn;
+import org.opencv.dnn.Net;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Age and gender Caffe forward passes on prepared blobs, through CaffeAttributeHead. The models are read from the
+ * directory named by -Dbenchmark.models (deploy_*.prototxt and *_net.caffemodel).
+ */
+@State(Scope.Thread)
+public class ForwardBenchmark {
+
+    @Param({"age", "gender"})
+    public String model;
+
+    /** Faces per forward. */
+    @Param({"1", "4"})
+    public int batch;
+
+    private CaffeAttributeHead mHead;
+    private final PreprocessCache mCache = new PreprocessCache();
+    private Mat mRgba;
+    private List<Rect> mFaces;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<RecordedFrames.Frame> frames = RecordedFrames.load();
+        File dir = new File(RecordedFrames.property("benchmark.models"));
+        Net net = Dnn.readNetFromCaffe(new File(dir, "deploy_" + model + ".prototxt").getPath(),
+                new File(dir, model + "_net.caffemodel").getPath());
+        if (net.empty())
+            throw new IllegalStateException("Cannot load the " + model + " net from " + dir);
+
+        // the first recorded face, repeated up to the batch size
+        Rect face = null;
+        RecordedFrames.Frame source = null;
+        for (RecordedFrames.Frame frame : frames) {
+            if (!frame.faces.isEmpty()) {
+                face = frame.faces.get(0);
+                source = frame;
+                break;
+            }
+        }
+        if (face == null)
+            throw new IllegalStateException("No face in the recorded frames");
+        mFaces = new ArrayList<>();
+        for (int i = 0; i < batch; i++)
+            mFaces.add(face);
+        mRgba = source.rgba.clone();
+        RecordedFrames.release(frames);
+
+        mHead = new CaffeAttributeHead(net, new String[0], CaffeAttributeHead.FACE_227, batch);
+        // one frame id for the whole trial: the blob is built once and served from the cache
+        mCache.beginFrame(1, OrientationManager.NO_ROTATION);
+        mHead.classify(mCache, mRgba, mFaces);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mCache.release();
+        mRgba.release();
+    }
+
+    @Benchmark
+    public float[][] forward() {
+        return mHead.classify(mCache, mRgba, mFaces);
+    }
+}
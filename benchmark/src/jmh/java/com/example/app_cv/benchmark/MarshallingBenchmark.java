@@ -0,0 +1,72 @@
+package com.example.app_cv.benchmark;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Rect;
+import org.opencv.utils.Converters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Java/native marshalling of face rectangles, as done around every detectMultiScale. */
+@State(Scope.Thread)
+public class MarshallingBenchmark {
+
+    @Param({"1", "8"})
+    public int faces;
+
+    private MatOfRect mMatOfRect;
+    private Rect[] mRects;
+    private List<Rect> mRectList;
+    private Mat mConverted;
+
+    @Setup
+    public void setUp() {
+        RecordedFrames.loadNative();
+        mRects = new Rect[faces];
+        mRectList = new ArrayList<>(faces);
+        for (int i = 0; i < faces; i++) {
+            mRects[i] = new Rect(10 * i, 20 * i, 100, 100);
+            mRectList.add(mRects[i]);
+        }
+        mMatOfRect = new MatOfRect(mRects);
+        mConverted = Converters.vector_Rect_to_Mat(mRectList);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mMatOfRect.release();
+        mConverted.release();
+    }
+
+    @Benchmark
+    public Rect[] matOfRectToArray() {
+        return mMatOfRect.toArray();
+    }
+
+    @Benchmark
+    public MatOfRect matOfRectFromArray() {
+        mMatOfRect.fromArray(mRects);
+        return mMatOfRect;
+    }
+
+    @Benchmark
+    public Mat convertersListToMat() {
+        Mat mat = Converters.vector_Rect_to_Mat(mRectList);
+        mat.release();
+        return mat;
+    }
+
+    @Benchmark
+    public List<Rect> convertersMatToList() {
+        List<Rect> rects = new ArrayList<>(faces);
+        Converters.Mat_to_vector_Rect(mConverted, rects);
+        return rects;
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.app_cv.benchmark;
+
+import com.example.app_cv.CaffeAttributeHead;
+import com.example.app_cv.OrientationManager;
+import com.example.app_cv.PreprocessCache;
+import com.example.app_cv.SentimentPreprocessor;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.FloatBuffer;
+import java.util.List;
+
+/** Net inputs: face crops batched into a Caffe blob, and the 48x48 sentiment input. */
+@State(Scope.Thread)
+public class PreprocessBenchmark {
+
+    private List<RecordedFrames.Frame> mFrames;
+    private RecordedFrames.Cursor mCursor;
+    private long mFrameId;
+    private final PreprocessCache mCache = new PreprocessCache();
+    private SentimentPreprocessor mSentiment;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mFrames = RecordedFrames.load();
+        mCursor = new RecordedFrames.Cursor(mFrames);
+        mSentiment = new SentimentPreprocessor();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        RecordedFrames.release(mFrames);
+        mCache.release();
+        mSentiment.release();
+    }
+
+    // every call is a new frame, so nothing is served from the cache
+    @Benchmark
+    public Mat cropAndBlob() {
+        RecordedFrames.Frame frame = mCursor.next();
+        mCache.beginFrame(++mFrameId, OrientationManager.NO_ROTATION);
+        if (frame.faces.isEmpty())
+            return null;
+        return mCache.blob(frame.rgba, frame.faces, CaffeAttributeHead.FACE_227);
+    }
+
+    @Benchmark
+    public FloatBuffer sentimentInput() {
+        RecordedFrames.Frame frame = mCursor.next();
+        FloatBuffer input = null;
+        for (Rect face : frame.faces)
+            input = mSentiment.prepare(frame.gray, face);
+        return input;
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.app_cv.benchmark;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.CascadeClassifier;
+
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Size;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Recorded frames in every layout the per-frame path sees: NV21 as delivered by the camera,
+ * RGBA and gray as handed to onCameraFrame, plus the faces the cascade finds in each.
+ *
+ * Frames are the images in the directory named by -Dbenchmark.frames, in file name order.
+ */
+final class RecordedFrames {
+
+    static final class Frame {
+        final Mat nv21;
+        final Mat rgba;
+        final Mat gray;
+        final List<Rect> faces;
+
+        Frame(Mat nv21, Mat rgba, Mat gray, List<Rect> faces) {
+            this.nv21 = nv21;
+            this.rgba = rgba;
+            this.gray = gray;
+            this.faces = faces;
+        }
+    }
+
+    /** Hands out the frames round-robin, one cursor per benchmark state. */
+    static final class Cursor {
+        private final List<Frame> mFrames;
+        private int mNext;
+
+        Cursor(List<Frame> frames) {
+            mFrames = frames;
+        }
+
+        Frame next() {
+            Frame frame = mFrames.get(mNext);
+            mNext = (mNext + 1) % mFrames.size();
+            return frame;
+        }
+    }
+
+    private static boolean sLoaded;
+
+    private RecordedFrames() {
+    }
+
+    /** Loads the OpenCV library; call before creating any Mat, including in field initializers. */
+    static synchronized void loadNative() {
+        if (!sLoaded) {
+            System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+            sLoaded = true;
+        }
+    }
+
+    static String property(String name) {
+        String value = System.getProperty(name);
+        if (value == null || value.isEmpty())
+            throw new IllegalStateException("Set -D" + name);
+        return value;
+    }
+
+    static CascadeClassifier cascade() {
+        CascadeClassifier cascade = new CascadeClassifier(property("benchmark.cascade"));
+        if (cascade.empty())
+            throw new IllegalStateException("Cannot load " + property("benchmark.cascade"));
+        return cascade;
+    }
+
+    static List<Frame> load() {
+        loadNative();
+        File dir = new File(property("benchmark.frames"));
+        File[] files = dir.listFiles();
+        if (files == null)
+            throw new IllegalStateException("Not a directory: " + dir);
+        Arrays.sort(files);
+
+        CascadeClassifier cascade = cascade();
+        List<Frame> frames = new ArrayList<>();
+        for (File file : files) {
+            Mat bgr = Imgcodecs.imread(file.getAbsolutePath());
+            if (bgr.empty())
+                continue;
+            // NV21 needs even dimensions
+            Mat even = bgr.submat(0, bgr.rows() & ~1, 0, bgr.cols() & ~1);
+            Mat rgba = new Mat();
+            Imgproc.cvtColor(even, rgba, Imgproc.COLOR_BGR2RGBA);
+            Mat gray = new Mat();
+            Imgproc.cvtColor(even, gray, Imgproc.COLOR_BGR2GRAY);
+            Mat nv21 = toNv21(even);
+
+            MatOfRect found = new MatOfRect();
+            int minFace = Math.round(Math.min(gray.rows(), gray.cols()) * 0.2f);
+            cascade.detectMultiScale(gray, found, 1.1, 2, 2, new Size(minFace, minFace), new Size());
+            frames.add(new Frame(nv21, rgba, gray, found.toList()));
+            found.release();
+            even.release();
+            bgr.release();
+        }
+        if (frames.isEmpty())
+            throw new IllegalStateException("No readable images in " + dir);
+        return frames;
+    }
+
+    // I420 from OpenCV, then the U and V planes interleaved as VU rows
+    private static Mat toNv21(Mat bgr) {
+        int w = bgr.cols();
+        int h = bgr.rows();
+        Mat i420 = new Mat();
+        Imgproc.cvtColor(bgr, i420, Imgproc.COLOR_BGR2YUV_I420);
+        Mat flat = i420.reshape(1, 1);
+        Mat u = flat.colRange(w * h, w * h * 5 / 4).reshape(1, h / 2);
+        Mat v = flat.colRange(w * h * 5 / 4, w * h * 3 / 2).reshape(1, h / 2);
+
+        Mat nv21 = new Mat(h + h / 2, w, CvType.CV_8UC1);
+        i420.submat(0, h, 0, w).copyTo(nv21.submat(0, h, 0, w));
+        Mat vu = new Mat();
+        Core.merge(Arrays.asList(v, u), vu);
+        vu.reshape(1, h / 2).copyTo(nv21.submat(h, h + h / 2, 0, w));
+        i420.release();
+        vu.release();
+        return nv21;
+    }
+
+    static void release(List<Frame> frames) {
+        for (Frame frame : frames) {
+            frame.nv21.release();
+            frame.rgba.release();
+            frame.gray.release();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.app_cv.benchmark;
+
+import com.example.app_cv.CaffeAttributeHead;
+import com.example.app_cv.FaceProcessor;
+import com.example.app_cv.FramePipeline;
+import com.example.app_cv.FrameSource;
+import com.example.app_cv.FrameTracer;
+import com.example.app_cv.ImageDirectoryFrameSource;
+import com.example.app_cv.InferenceWorkerPool;
+import com.example.app_cv.MatArena;
+import com.example.app_cv.OrientationManager;
+import com.example.app_cv.ReplayFrameSource;
+import com.example.app_cv.VideoFrameSource;
+
+import org.opencv.core.Mat;
+import org.opencv.dnn.Dnn;
+import org.opencv.dnn.Net;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Replays a recording through the app's FramePipeline and FaceProcessor on a desktop JVM and
+ * prints the per-stage latency, so a pipeline change can be measured end to end on the same
+ * frames every time.
+ *
+ * -Dbenchmark.frames names a directory of images or a video file, -Dbenchmark.fps paces the
+ * replay (0 for as fast as the source reads). Age and gender run when -Dbenchmark.models holds
+ * the Caffe nets; emotion needs the Android TensorFlow runtime and is never scored here.
+ */
+public final class ReplayPipeline {
+
+    private static final int QUEUE_CAPACITY = 1;
+
+    private ReplayPipeline() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        RecordedFrames.loadNative();
+        File recording = new File(RecordedFrames.property("benchmark.frames"));
+        double fps = Double.parseDouble(System.getProperty("benchmark.fps", "30"));
+        final File models = new File(System.getProperty("benchmark.models", ""));
+
+        InferenceWorkerPool workers = new InferenceWorkerPool(InferenceWorkerPool.defaultThreadCount(),
+                new InferenceWorkerPool.ModelFactory() {
+                    @Override
+                    public InferenceWorkerPool.WorkerModels create(int workerIndex) {
+                        return new InferenceWorkerPool.WorkerModels(
+                                head(models, "age", FaceProcessor.AGES),
+                                head(models, "gender", FaceProcessor.GENDERS), null);
+                    }
+                }, true);
+        FrameTracer tracer = new FrameTracer();
+        FaceProcessor processor = new FaceProcessor(new OrientationManager(0),
+                RecordedFrames.cascade(), workers, tracer);
+        final FramePipeline pipeline = new FramePipeline(processor, QUEUE_CAPACITY, tracer);
+
+        final AtomicBoolean stopped = new AtomicBoolean(true);
+        ReplayFrameSource source = recording.isDirectory()
+                ? new ImageDirectoryFrameSource(recording, fps)
+                : new VideoFrameSource(recording.getPath(), fps);
+        source.start(new FrameSource.Listener() {
+            @Override
+            public void onSourceStarted(int width, int height) {
+                pipeline.start();
+            }
+
+            @Override
+            public Mat onFrame(Mat rgba, Mat gray) {
+                pipeline.submit(rgba, gray);
+                return rgba;
+            }
+
+            @Override
+            public void onSourceStopped() {
+                stopped.set(pipeline.stop());
+            }
+        });
+        source.awaitCompletion();
+        // a stage still finishing its call keeps using the processor
+        if (stopped.get())
+            processor.release();
+        workers.shutdown();
+
+        System.out.println(source.getDeliveredFrames() + " frames replayed, "
+                + pipeline.getDroppedFrames() + " dropped");
+        System.out.println("Frame latency (us):\n" + tracer.summary());
+        System.out.println("Mat arenas: " + MatArena.getPeakBytes() / 1024 + " KB peak");
+    }
+
+    // An empty net leaves the head switched off
+    private static CaffeAttributeHead head(File dir, String model, String[] labels) {
+        File proto = new File(dir, "deploy_" + model + ".prototxt");
+        File weights = new File(dir, model + "_net.caffemodel");
+        Net net = proto.isFile() && weights.isFile()
+                ? Dnn.readNetFromCaffe(proto.getPath(), weights.getPath()) : new Net();
+        return new CaffeAttributeHead(net, labels, CaffeAttributeHead.FACE_227, 8);
+    }
+}
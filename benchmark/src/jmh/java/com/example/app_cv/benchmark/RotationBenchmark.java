@@ -0,0 +1,58 @@
+package com.example.app_cv.benchmark;
+
+import com.example.app_cv.OrientationManager;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+
+/** Turning the gray detection image upright and mapping faces back to the frame. */
+@State(Scope.Thread)
+public class RotationBenchmark {
+
+    @Param({"0", "90", "270"})
+    public int degrees;
+
+    private List<RecordedFrames.Frame> mFrames;
+    private RecordedFrames.Cursor mCursor;
+    private OrientationManager mOrientation;
+    private Mat mUpright;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mFrames = RecordedFrames.load();
+        mCursor = new RecordedFrames.Cursor(mFrames);
+        mOrientation = new OrientationManager(degrees);
+        // only now is the native library loaded
+        mUpright = new Mat();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        RecordedFrames.release(mFrames);
+        mUpright.release();
+    }
+
+    @Benchmark
+    public Mat grayToUpright() {
+        mOrientation.toUpright(mCursor.next().gray, mUpright);
+        return mUpright;
+    }
+
+    @Benchmark
+    public Rect faceToFrame() {
+        RecordedFrames.Frame frame = mCursor.next();
+        Rect last = null;
+        for (Rect face : frame.faces)
+            last = mOrientation.toFrame(face, frame.rgba.cols(), frame.rgba.rows());
+        return last;
+    }
+}
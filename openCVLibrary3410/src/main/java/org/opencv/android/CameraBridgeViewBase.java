@@ -14,9 +14,13 @@ import android.content.DialogInterface;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Matrix;
 import android.graphics.Rect;
+import android.graphics.RectF;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.Display;
+import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
@@ -39,6 +43,17 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     private CvCameraViewListener2 mListener;
     private boolean mSurfaceExist;
     private final Object mSyncObject = new Object();
+    private FrameRenderer mRenderer;
+    private int mSurfaceWidth;
+    private int mSurfaceHeight;
+    // where the frame goes on the surface, recomputed when the frame or surface size changes
+    private final Rect mSrcRect = new Rect();
+    private final Rect mDstRect = new Rect();
+    // frame pixels to view pixels, including the upright rotation and mirror when enabled
+    private final Matrix mFrameToView = new Matrix();
+    private boolean mDrawUpright = false;
+    private int mDrawRotation = 0;
+    private boolean mDrawMirror = false;
 
     protected int mFrameWidth;
     protected int mFrameHeight;
@@ -47,6 +62,9 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     protected float mScale = 0;
     protected int mPreviewFormat = RGBA;
     protected int mCameraIndex = CAMERA_ID_ANY;
+    // of the camera that is actually open, set by the subclass before AllocateCache()
+    protected int mSensorOrientation = 0;
+    protected boolean mFrontFacing = false;
     protected boolean mEnabled;
     protected FpsMeter mFpsMeter = null;
 
@@ -181,6 +199,7 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
 
         /**
          * This method returns RGBA Mat with frame
+         * The conversion is done on the first call and reused for the rest of the frame
          */
         public Mat rgba();
 
@@ -190,9 +209,105 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         public Mat gray();
     };
 
+    /**
+     * Alternative to the Bitmap/Canvas drawing of processed frames. The renderer receives the
+     * surface and the precomputed source and destination rects whenever the camera is
+     * (re)connected, and then every frame returned by onCameraFrame.
+     */
+    public interface FrameRenderer {
+        /**
+         * Called before the first frame of a camera session, from the thread that connects the camera.
+         * @param src - part of the frame to draw
+         * @param dst - where it goes on the surface, already scaled and letterboxed
+         * @param rotation - clockwise rotation to apply to the frame before drawing, multiple of 90
+         * @param mirror - whether to mirror the rotated frame horizontally
+         */
+        public void onSurfaceChanged(Surface surface, int surfaceWidth, int surfaceHeight, Rect src, Rect dst,
+                                     int rotation, boolean mirror);
+
+        /**
+         * Called from the frame delivery thread with the Mat returned by onCameraFrame.
+         * @return false if the frame could not be drawn
+         */
+        public boolean render(Mat rgba);
+
+        /**
+         * Called after the last frame of a camera session, the surface must not be used any more.
+         */
+        public void onSurfaceDestroyed();
+    };
+
+    /**
+     * Draws processed frames with the given renderer instead of Utils.matToBitmap and a Canvas.
+     * Must be set before the view is enabled; null restores the default drawing.
+     * The renderer never hands out a Canvas, so the fps label is not drawn with it.
+     */
+    public void setFrameRenderer(FrameRenderer renderer) {
+        mRenderer = renderer;
+        if (mRenderer != null && mFpsMeter != null)
+            Log.w(TAG, "The fps label is not drawn with a frame renderer, the fps is only logged");
+    }
+
+    /**
+     * Where frames are drawn on this view, valid from onCameraViewStarted on.
+     * Lets other layers line up with the frame pixels.
+     */
+    public Rect getFrameDrawRect() {
+        return new Rect(mDstRect);
+    }
+
+    /**
+     * Draws frames turned upright for the current display rotation and, for a front camera,
+     * mirrored like a preview; the frames handed to the listener stay as the sensor delivers
+     * them. Must be set before the view is enabled.
+     */
+    public void setDrawUpright(boolean upright) {
+        mDrawUpright = upright;
+    }
+
+    /** Clockwise mounting angle of the open camera, valid from onCameraViewStarted on. */
+    public int getSensorOrientation() {
+        return mSensorOrientation;
+    }
+
+    /** Whether the open camera faces the user, valid from onCameraViewStarted on. */
+    public boolean isFrontFacing() {
+        return mFrontFacing;
+    }
+
+    /**
+     * Clockwise rotation that turns frames of the open camera upright on the display as it is
+     * rotated now; a front camera is mirrored, so the display rotation adds up instead of
+     * cancelling out. Valid from onCameraViewStarted on.
+     */
+    public int getFrameRotation() {
+        int displayDegrees = 0;
+        Display display = getDisplay();
+        if (display != null) {
+            switch (display.getRotation()) {
+                case Surface.ROTATION_90:  displayDegrees = 90;  break;
+                case Surface.ROTATION_180: displayDegrees = 180; break;
+                case Surface.ROTATION_270: displayDegrees = 270; break;
+            }
+        }
+        int rotation = mFrontFacing ? mSensorOrientation + displayDegrees
+                : mSensorOrientation - displayDegrees;
+        return ((rotation % 360) + 360) % 360;
+    }
+
+    /**
+     * Maps frame pixels to view pixels the way frames are drawn: upright rotation and mirror
+     * when setDrawUpright() is on, then scale and offset. Valid from onCameraViewStarted on.
+     */
+    public Matrix getFrameToViewMatrix() {
+        return new Matrix(mFrameToView);
+    }
+
     public void surfaceChanged(SurfaceHolder arg0, int arg1, int arg2, int arg3) {
         Log.d(TAG, "call surfaceChanged event");
         synchronized(mSyncObject) {
+            mSurfaceWidth = arg2;
+            mSurfaceHeight = arg3;
             if (!mSurfaceExist) {
                 mSurfaceExist = true;
                 checkCurrentState();
@@ -242,13 +357,16 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     }
 
     /**
-     * This method enables label with fps value on the screen
+     * This method enables label with fps value on the screen.
+     * With a frame renderer set the label is not drawn, the fps value is only logged.
      */
     public void enableFpsMeter() {
         if (mFpsMeter == null) {
             mFpsMeter = new FpsMeter();
             mFpsMeter.setResolution(mFrameWidth, mFrameHeight);
         }
+        if (mRenderer != null)
+            Log.w(TAG, "The fps label is not drawn with a frame renderer, the fps is only logged");
     }
 
     public void disableFpsMeter() {
@@ -374,8 +492,12 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
 
     private void onExitStartedState() {
         disconnectCamera();
+        if (mRenderer != null) {
+            mRenderer.onSurfaceDestroyed();
+        }
         if (mCacheBitmap != null) {
             mCacheBitmap.recycle();
+            mCacheBitmap = null;
         }
     }
 
@@ -394,6 +516,15 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
             modified = frame.rgba();
         }
 
+        if (mRenderer != null) {
+            if (modified != null && !mRenderer.render(modified))
+                Log.e(TAG, "Frame renderer failed to draw the frame");
+            // no Canvas to draw the label on, FpsMeter still logs the value
+            if (mFpsMeter != null)
+                mFpsMeter.measure();
+            return;
+        }
+
         boolean bmpValid = true;
         if (modified != null) {
             try {
@@ -413,19 +544,10 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
                 if (BuildConfig.DEBUG)
                     Log.d(TAG, "mStretch value: " + mScale);
 
-                if (mScale != 0) {
-                    canvas.drawBitmap(mCacheBitmap, new Rect(0,0,mCacheBitmap.getWidth(), mCacheBitmap.getHeight()),
-                         new Rect((int)((canvas.getWidth() - mScale*mCacheBitmap.getWidth()) / 2),
-                         (int)((canvas.getHeight() - mScale*mCacheBitmap.getHeight()) / 2),
-                         (int)((canvas.getWidth() - mScale*mCacheBitmap.getWidth()) / 2 + mScale*mCacheBitmap.getWidth()),
-                         (int)((canvas.getHeight() - mScale*mCacheBitmap.getHeight()) / 2 + mScale*mCacheBitmap.getHeight())), null);
-                } else {
-                     canvas.drawBitmap(mCacheBitmap, new Rect(0,0,mCacheBitmap.getWidth(), mCacheBitmap.getHeight()),
-                         new Rect((canvas.getWidth() - mCacheBitmap.getWidth()) / 2,
-                         (canvas.getHeight() - mCacheBitmap.getHeight()) / 2,
-                         (canvas.getWidth() - mCacheBitmap.getWidth()) / 2 + mCacheBitmap.getWidth(),
-                         (canvas.getHeight() - mCacheBitmap.getHeight()) / 2 + mCacheBitmap.getHeight()), null);
-                }
+                if (mDrawRotation != 0 || mDrawMirror)
+                    canvas.drawBitmap(mCacheBitmap, mFrameToView, null);
+                else
+                    canvas.drawBitmap(mCacheBitmap, mSrcRect, mDstRect, null);
 
                 if (mFpsMeter != null) {
                     mFpsMeter.measure();
@@ -454,7 +576,50 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     // NOTE: On Android 4.1.x the function must be called before SurfaceTexture constructor!
     protected void AllocateCache()
     {
-        mCacheBitmap = Bitmap.createBitmap(mFrameWidth, mFrameHeight, Bitmap.Config.ARGB_8888);
+        updateDrawRects();
+        if (mRenderer != null) {
+            mRenderer.onSurfaceChanged(getHolder().getSurface(), mSurfaceWidth, mSurfaceHeight,
+                    mSrcRect, mDstRect, mDrawRotation, mDrawMirror);
+        } else {
+            mCacheBitmap = Bitmap.createBitmap(mFrameWidth, mFrameHeight, Bitmap.Config.ARGB_8888);
+        }
+    }
+
+    // The frame is centered on the surface, scaled by mScale when it is set; an upright frame
+    // of a camera mounted sideways is drawn with its width and height swapped
+    private void updateDrawRects() {
+        int surfaceWidth = mSurfaceWidth > 0 ? mSurfaceWidth : getWidth();
+        int surfaceHeight = mSurfaceHeight > 0 ? mSurfaceHeight : getHeight();
+        mSurfaceWidth = surfaceWidth;
+        mSurfaceHeight = surfaceHeight;
+        mDrawRotation = mDrawUpright ? getFrameRotation() : 0;
+        mDrawMirror = mDrawUpright && mFrontFacing;
+        boolean swap = mDrawRotation == 90 || mDrawRotation == 270;
+        int shownWidth = swap ? mFrameHeight : mFrameWidth;
+        int shownHeight = swap ? mFrameWidth : mFrameHeight;
+        float scale = 1;
+        if (mScale != 0 && shownWidth > 0 && shownHeight > 0)
+            scale = Math.min(((float) surfaceHeight) / shownHeight, ((float) surfaceWidth) / shownWidth);
+        int width = (int)(scale * shownWidth);
+        int height = (int)(scale * shownHeight);
+        int left = (int)((surfaceWidth - scale * shownWidth) / 2);
+        int top = (int)((surfaceHeight - scale * shownHeight) / 2);
+        mSrcRect.set(0, 0, mFrameWidth, mFrameHeight);
+        mDstRect.set(left, top, left + width, top + height);
+
+        // rotate about the origin, move the rotated frame back to the origin, mirror it in
+        // place, then scale it into the destination rect
+        mFrameToView.reset();
+        mFrameToView.postRotate(mDrawRotation);
+        RectF rotated = new RectF(0, 0, mFrameWidth, mFrameHeight);
+        mFrameToView.mapRect(rotated);
+        mFrameToView.postTranslate(-rotated.left, -rotated.top);
+        if (mDrawMirror) {
+            mFrameToView.postScale(-1, 1);
+            mFrameToView.postTranslate(shownWidth, 0);
+        }
+        mFrameToView.postScale((float) width / Math.max(1, shownWidth), (float) height / Math.max(1, shownHeight));
+        mFrameToView.postTranslate(left, top);
     }
 
     public interface ListItemAccessor {
@@ -1,6 +1,7 @@
 package org.opencv.android;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -20,6 +21,7 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.util.Range;
 import android.view.Surface;
 import android.view.ViewGroup.LayoutParams;
 
@@ -54,6 +56,70 @@ public class JavaCamera2View extends CameraBridgeViewBase {
 
     private HandlerThread mBackgroundThread;
     private Handler mBackgroundHandler;
+    // reused for every image of the session, only touched on the background thread
+    private JavaCamera2Frame mFrame;
+
+    private CaptureProfile mCaptureProfile = new CaptureProfile();
+    private AnalysisFrameListener mAnalysisListener;
+    private ImageReader mAnalysisReader;
+    private HandlerThread mAnalysisThread;
+    private Handler mAnalysisHandler;
+    // reused for every analysis image, only touched on the analysis thread
+    private JavaCamera2Frame mAnalysisFrame;
+
+    /**
+     * Capture settings for sessions that feed inference rather than photography.
+     * The defaults reproduce the plain preview session.
+     */
+    public static class CaptureProfile {
+        private int mMinFps = 0;
+        private int mMaxFps = 0;
+        private int mMaxImages = 2;
+        private int mAnalysisWidth = 0;
+        private int mAnalysisHeight = 0;
+        private boolean mFacePriority = false;
+
+        /**
+         * Asks auto exposure for a frame rate range; the closest range the camera supports is used.
+         * 0, 0 leaves the camera default.
+         */
+        public CaptureProfile setTargetFpsRange(int minFps, int maxFps) {
+            mMinFps = minFps;
+            mMaxFps = maxFps;
+            return this;
+        }
+
+        /** Number of images the display ImageReader may hold, at least 2. */
+        public CaptureProfile setImageReaderDepth(int maxImages) {
+            mMaxImages = Math.max(2, maxImages);
+            return this;
+        }
+
+        /**
+         * Adds a second, smaller YUV stream delivered to the AnalysisFrameListener, next to the
+         * display stream. The largest supported size that fits is used. 0, 0 disables it.
+         */
+        public CaptureProfile setAnalysisSize(int width, int height) {
+            mAnalysisWidth = width;
+            mAnalysisHeight = height;
+            return this;
+        }
+
+        /**
+         * Continuous video autofocus, which hunts less than the picture mode, and face priority
+         * scene mode with face statistics when the camera has them, so 3A meters on faces.
+         */
+        public CaptureProfile setFacePriority(boolean facePriority) {
+            mFacePriority = facePriority;
+            return this;
+        }
+    }
+
+    /** Receives the frames of the analysis stream, on a thread of its own. */
+    public interface AnalysisFrameListener {
+        /** The frame is only valid during the call. */
+        public void onAnalysisFrame(CvCameraViewFrame frame);
+    }
 
     public JavaCamera2View(Context context, int cameraId) {
         super(context, cameraId);
@@ -63,16 +129,38 @@ public class JavaCamera2View extends CameraBridgeViewBase {
         super(context, attrs);
     }
 
+    /** Takes effect on the next camera connection. */
+    public void setCaptureProfile(CaptureProfile profile) {
+        mCaptureProfile = profile != null ? profile : new CaptureProfile();
+    }
+
+    public void setAnalysisFrameListener(AnalysisFrameListener listener) {
+        mAnalysisListener = listener;
+    }
+
     private void startBackgroundThread() {
         Log.i(LOGTAG, "startBackgroundThread");
         stopBackgroundThread();
         mBackgroundThread = new HandlerThread("OpenCVCameraBackground");
         mBackgroundThread.start();
         mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
+        mAnalysisThread = new HandlerThread("OpenCVCameraAnalysis");
+        mAnalysisThread.start();
+        mAnalysisHandler = new Handler(mAnalysisThread.getLooper());
     }
 
     private void stopBackgroundThread() {
         Log.i(LOGTAG, "stopBackgroundThread");
+        if (mAnalysisThread != null) {
+            mAnalysisThread.quitSafely();
+            try {
+                mAnalysisThread.join();
+                mAnalysisThread = null;
+                mAnalysisHandler = null;
+            } catch (InterruptedException e) {
+                Log.e(LOGTAG, "stopBackgroundThread", e);
+            }
+        }
         if (mBackgroundThread == null)
             return;
         mBackgroundThread.quitSafely();
@@ -170,7 +258,11 @@ public class JavaCamera2View extends CameraBridgeViewBase {
                 return;
             }
 
-            mImageReader = ImageReader.newInstance(w, h, mPreviewFormat, 2);
+            if (mFrame == null)
+                mFrame = new JavaCamera2Frame();
+            final JavaCamera2Frame frame = mFrame;
+            final CaptureProfile profile = mCaptureProfile;
+            mImageReader = ImageReader.newInstance(w, h, mPreviewFormat, profile.mMaxImages);
             mImageReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
                 @Override
                 public void onImageAvailable(ImageReader reader) {
@@ -183,18 +275,26 @@ public class JavaCamera2View extends CameraBridgeViewBase {
                     assert (planes.length == 3);
                     assert (image.getFormat() == mPreviewFormat);
 
-                    JavaCamera2Frame tempFrame = new JavaCamera2Frame(image);
-                    deliverAndDrawFrame(tempFrame);
-                    tempFrame.release();
+                    frame.bind(image);
+                    deliverAndDrawFrame(frame);
+                    frame.unbind();
                     image.close();
                 }
             }, mBackgroundHandler);
             Surface surface = mImageReader.getSurface();
+            List<Surface> outputs = new ArrayList<Surface>();
+            outputs.add(surface);
 
             mPreviewRequestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
             mPreviewRequestBuilder.addTarget(surface);
 
-            mCameraDevice.createCaptureSession(Arrays.asList(surface),
+            Surface analysisSurface = createAnalysisReader(profile);
+            if (analysisSurface != null) {
+                outputs.add(analysisSurface);
+                mPreviewRequestBuilder.addTarget(analysisSurface);
+            }
+
+            mCameraDevice.createCaptureSession(outputs,
                 new CameraCaptureSession.StateCallback() {
                     @Override
                     public void onConfigured(CameraCaptureSession cameraCaptureSession) {
@@ -204,10 +304,7 @@ public class JavaCamera2View extends CameraBridgeViewBase {
                         }
                         mCaptureSession = cameraCaptureSession;
                         try {
-                            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE,
-                                    CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
-                            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
-                                    CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
+                            applyCaptureProfile(profile, mPreviewRequestBuilder);
 
                             mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), null, mBackgroundHandler);
                             Log.i(LOGTAG, "CameraPreviewSession has been started");
@@ -247,10 +344,132 @@ public class JavaCamera2View extends CameraBridgeViewBase {
                 mImageReader.close();
                 mImageReader = null;
             }
+            if (null != mFrame) {
+                mFrame.release();
+                mFrame = null;
+            }
+            if (null != mAnalysisReader) {
+                mAnalysisReader.close();
+                mAnalysisReader = null;
+            }
+            if (null != mAnalysisFrame) {
+                mAnalysisFrame.release();
+                mAnalysisFrame = null;
+            }
         }
         Log.i(LOGTAG, "camera closed!");
     }
 
+    // Second YUV stream at the analysis size, or null when the profile does not ask for one
+    private Surface createAnalysisReader(CaptureProfile profile) throws CameraAccessException {
+        if (profile.mAnalysisWidth <= 0 || profile.mAnalysisHeight <= 0)
+            return null;
+        CameraManager manager = (CameraManager) getContext().getSystemService(Context.CAMERA_SERVICE);
+        StreamConfigurationMap map = manager.getCameraCharacteristics(mCameraID)
+                .get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        android.util.Size best = null;
+        for (android.util.Size size : map.getOutputSizes(ImageReader.class)) {
+            if (size.getWidth() > profile.mAnalysisWidth || size.getHeight() > profile.mAnalysisHeight)
+                continue;
+            if (best == null || size.getWidth() * size.getHeight() > best.getWidth() * best.getHeight())
+                best = size;
+        }
+        if (best == null) {
+            Log.e(LOGTAG, "No analysis size fits " + profile.mAnalysisWidth + "x" + profile.mAnalysisHeight);
+            return null;
+        }
+        Log.i(LOGTAG, "Analysis stream " + best.getWidth() + "x" + best.getHeight());
+
+        if (mAnalysisFrame == null)
+            mAnalysisFrame = new JavaCamera2Frame();
+        final JavaCamera2Frame frame = mAnalysisFrame;
+        mAnalysisReader = ImageReader.newInstance(best.getWidth(), best.getHeight(), mPreviewFormat, 2);
+        mAnalysisReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+            @Override
+            public void onImageAvailable(ImageReader reader) {
+                Image image = reader.acquireLatestImage();
+                if (image == null)
+                    return;
+                AnalysisFrameListener listener = mAnalysisListener;
+                if (listener != null) {
+                    frame.bind(image);
+                    listener.onAnalysisFrame(frame);
+                    frame.unbind();
+                }
+                image.close();
+            }
+        }, mAnalysisHandler);
+        return mAnalysisReader.getSurface();
+    }
+
+    private void applyCaptureProfile(CaptureProfile profile, CaptureRequest.Builder builder)
+            throws CameraAccessException {
+        CameraManager manager = (CameraManager) getContext().getSystemService(Context.CAMERA_SERVICE);
+        CameraCharacteristics characteristics = manager.getCameraCharacteristics(mCameraID);
+
+        if (profile.mFacePriority) {
+            builder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO);
+            builder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
+            int[] sceneModes = characteristics.get(CameraCharacteristics.CONTROL_AVAILABLE_SCENE_MODES);
+            if (contains(sceneModes, CaptureRequest.CONTROL_SCENE_MODE_FACE_PRIORITY)) {
+                builder.set(CaptureRequest.CONTROL_MODE, CaptureRequest.CONTROL_MODE_USE_SCENE_MODE);
+                builder.set(CaptureRequest.CONTROL_SCENE_MODE, CaptureRequest.CONTROL_SCENE_MODE_FACE_PRIORITY);
+            }
+            int[] faceModes = characteristics.get(CameraCharacteristics.STATISTICS_INFO_AVAILABLE_FACE_DETECT_MODES);
+            if (contains(faceModes, CaptureRequest.STATISTICS_FACE_DETECT_MODE_SIMPLE))
+                builder.set(CaptureRequest.STATISTICS_FACE_DETECT_MODE, CaptureRequest.STATISTICS_FACE_DETECT_MODE_SIMPLE);
+        } else {
+            builder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+            builder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
+        }
+
+        if (profile.mMaxFps > 0) {
+            Range<Integer>[] ranges = characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+            Range<Integer> best = null;
+            int bestDistance = Integer.MAX_VALUE;
+            if (ranges != null) {
+                for (Range<Integer> range : ranges) {
+                    int distance = Math.abs(range.getLower() - profile.mMinFps)
+                            + Math.abs(range.getUpper() - profile.mMaxFps);
+                    if (distance < bestDistance) {
+                        bestDistance = distance;
+                        best = range;
+                    }
+                }
+            }
+            if (best != null) {
+                Log.i(LOGTAG, "Target FPS range " + best);
+                builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, best);
+            }
+        }
+    }
+
+    // The frames come as the sensor is mounted, clients need that to turn them upright
+    private void readCameraOrientation() {
+        if (mCameraID == null)
+            return;
+        CameraManager manager = (CameraManager) getContext().getSystemService(Context.CAMERA_SERVICE);
+        try {
+            CameraCharacteristics characteristics = manager.getCameraCharacteristics(mCameraID);
+            Integer orientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+            Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+            mSensorOrientation = orientation != null ? orientation : 0;
+            mFrontFacing = facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT;
+        } catch (CameraAccessException e) {
+            Log.e(LOGTAG, "Can't read the sensor orientation", e);
+        }
+    }
+
+    private static boolean contains(int[] values, int value) {
+        if (values == null)
+            return false;
+        for (int v : values) {
+            if (v == value)
+                return true;
+        }
+        return false;
+    }
+
     public static class JavaCameraSizeAccessor implements ListItemAccessor {
         @Override
         public int getWidth(Object obj) {
@@ -305,6 +524,7 @@ public class JavaCamera2View extends CameraBridgeViewBase {
             boolean needReconfig = calcPreviewSize(width, height);
             mFrameWidth = mPreviewSize.getWidth();
             mFrameHeight = mPreviewSize.getHeight();
+            readCameraOrientation();
 
             if ((getLayoutParams().width == LayoutParams.MATCH_PARENT) && (getLayoutParams().height == LayoutParams.MATCH_PARENT))
                 mScale = Math.min(((float)height)/mFrameHeight, ((float)width)/mFrameWidth);
@@ -327,121 +547,145 @@ public class JavaCamera2View extends CameraBridgeViewBase {
         return true;
     }
 
+    /**
+     * Frame wrapper reused across images. Only Mat headers on the plane buffers are created
+     * per image; conversion targets and the planar repack buffer are allocated once and kept
+     * while the preview size does not change.
+     */
     private class JavaCamera2Frame implements CvCameraViewFrame {
         @Override
         public Mat gray() {
-            Image.Plane[] planes = mImage.getPlanes();
-            int w = mImage.getWidth();
-            int h = mImage.getHeight();
-            assert(planes[0].getPixelStride() == 1);
-            ByteBuffer y_plane = planes[0].getBuffer();
-            int y_plane_step = planes[0].getRowStride();
-            mGray = new Mat(h, w, CvType.CV_8UC1, y_plane, y_plane_step);
-            return mGray;
+            // the Y plane is the gray image, chroma is never touched
+            return yPlane();
         }
 
         @Override
         public Mat rgba() {
+            if (mRgbaValid)
+                return mRgba;
             Image.Plane[] planes = mImage.getPlanes();
             int w = mImage.getWidth();
             int h = mImage.getHeight();
             int chromaPixelStride = planes[1].getPixelStride();
 
-
             if (chromaPixelStride == 2) { // Chroma channels are interleaved
-                assert(planes[0].getPixelStride() == 1);
-                assert(planes[2].getPixelStride() == 2);
-                ByteBuffer y_plane = planes[0].getBuffer();
-                int y_plane_step = planes[0].getRowStride();
-                ByteBuffer uv_plane1 = planes[1].getBuffer();
-                int uv_plane1_step = planes[1].getRowStride();
-                ByteBuffer uv_plane2 = planes[2].getBuffer();
-                int uv_plane2_step = planes[2].getRowStride();
-                Mat y_mat = new Mat(h, w, CvType.CV_8UC1, y_plane, y_plane_step);
-                Mat uv_mat1 = new Mat(h / 2, w / 2, CvType.CV_8UC2, uv_plane1, uv_plane1_step);
-                Mat uv_mat2 = new Mat(h / 2, w / 2, CvType.CV_8UC2, uv_plane2, uv_plane2_step);
-                long addr_diff = uv_mat2.dataAddr() - uv_mat1.dataAddr();
-                if (addr_diff > 0) {
-                    assert(addr_diff == 1);
-                    Imgproc.cvtColorTwoPlane(y_mat, uv_mat1, mRgba, Imgproc.COLOR_YUV2RGBA_NV12);
-                } else {
-                    assert(addr_diff == -1);
-                    Imgproc.cvtColorTwoPlane(y_mat, uv_mat2, mRgba, Imgproc.COLOR_YUV2RGBA_NV21);
-                }
-                return mRgba;
+                convertTwoPlane(planes, mRgba);
             } else { // Chroma channels are not interleaved
-                byte[] yuv_bytes = new byte[w*(h+h/2)];
-                ByteBuffer y_plane = planes[0].getBuffer();
-                ByteBuffer u_plane = planes[1].getBuffer();
-                ByteBuffer v_plane = planes[2].getBuffer();
+                // Repack the planes into the pooled I420 buffer with native row copies,
+                // the plane headers honour any row padding
+                allocateI420(w, h);
+                yPlane().copyTo(mI420Y);
+                copyPlane(planes[1], w / 2, h / 2, mI420U);
+                copyPlane(planes[2], w / 2, h / 2, mI420V);
+                Imgproc.cvtColor(mI420, mRgba, Imgproc.COLOR_YUV2RGBA_I420, 4);
+            }
+            // only a finished conversion is reused, a failed one is retried on the next call
+            mRgbaValid = true;
+            return mRgba;
+        }
 
-                int yuv_bytes_offset = 0;
+        // Converts a frame with interleaved chroma planes
+        private void convertTwoPlane(Image.Plane[] planes, Mat dst) {
+            int w = mImage.getWidth();
+            int h = mImage.getHeight();
+            assert(planes[2].getPixelStride() == 2);
+            ByteBuffer uv_plane1 = planes[1].getBuffer();
+            int uv_plane1_step = planes[1].getRowStride();
+            ByteBuffer uv_plane2 = planes[2].getBuffer();
+            int uv_plane2_step = planes[2].getRowStride();
+            Mat uv_mat1 = new Mat(h / 2, w / 2, CvType.CV_8UC2, uv_plane1, uv_plane1_step);
+            Mat uv_mat2 = new Mat(h / 2, w / 2, CvType.CV_8UC2, uv_plane2, uv_plane2_step);
+            Mat y_mat = yPlane();
+            long addr_diff = uv_mat2.dataAddr() - uv_mat1.dataAddr();
+            if (addr_diff > 0) {
+                assert(addr_diff == 1);
+                Imgproc.cvtColorTwoPlane(y_mat, uv_mat1, dst, Imgproc.COLOR_YUV2RGBA_NV12);
+            } else {
+                assert(addr_diff == -1);
+                Imgproc.cvtColorTwoPlane(y_mat, uv_mat2, dst, Imgproc.COLOR_YUV2RGBA_NV21);
+            }
+            uv_mat1.release();
+            uv_mat2.release();
+        }
 
-                int y_plane_step = planes[0].getRowStride();
-                if (y_plane_step == w) {
-                    y_plane.get(yuv_bytes, 0, w*h);
-                    yuv_bytes_offset = w*h;
-                } else {
-                    int padding = y_plane_step - w;
-                    for (int i = 0; i < h; i++){
-                        y_plane.get(yuv_bytes, yuv_bytes_offset, w);
-                        yuv_bytes_offset += w;
-                        if (i < h - 1) {
-                            y_plane.position(y_plane.position() + padding);
-                        }
-                    }
-                    assert(yuv_bytes_offset == w * h);
-                }
+        public JavaCamera2Frame() {
+            super();
+            mRgba = new Mat();
+            mI420 = new Mat();
+        }
 
-                int chromaRowStride = planes[1].getRowStride();
-                int chromaRowPadding = chromaRowStride - w/2;
+        public void bind(Image image) {
+            mImage = image;
+            mRgbaValid = false;
+        }
 
-                if (chromaRowPadding == 0){
-                    // When the row stride of the chroma channels equals their width, we can copy
-                    // the entire channels in one go
-                    u_plane.get(yuv_bytes, yuv_bytes_offset, w*h/4);
-                    yuv_bytes_offset += w*h/4;
-                    v_plane.get(yuv_bytes, yuv_bytes_offset, w*h/4);
-                } else {
-                    // When not equal, we need to copy the channels row by row
-                    for (int i = 0; i < h/2; i++){
-                        u_plane.get(yuv_bytes, yuv_bytes_offset, w/2);
-                        yuv_bytes_offset += w/2;
-                        if (i < h/2-1){
-                            u_plane.position(u_plane.position() + chromaRowPadding);
-                        }
-                    }
-                    for (int i = 0; i < h/2; i++){
-                        v_plane.get(yuv_bytes, yuv_bytes_offset, w/2);
-                        yuv_bytes_offset += w/2;
-                        if (i < h/2-1){
-                            v_plane.position(v_plane.position() + chromaRowPadding);
-                        }
-                    }
-                }
+        // The plane headers point into the image buffer and must not outlive it
+        public void unbind() {
+            if (mY != null) {
+                mY.release();
+                mY = null;
+            }
+            mImage = null;
+        }
 
-                Mat yuv_mat = new Mat(h+h/2, w, CvType.CV_8UC1);
-                yuv_mat.put(0, 0, yuv_bytes);
-                Imgproc.cvtColor(yuv_mat, mRgba, Imgproc.COLOR_YUV2RGBA_I420, 4);
-                return mRgba;
+        public void release() {
+            unbind();
+            releaseI420Views();
+            mRgba.release();
+            mI420.release();
+        }
+
+        private Mat yPlane() {
+            if (mY == null) {
+                Image.Plane plane = mImage.getPlanes()[0];
+                assert(plane.getPixelStride() == 1);
+                mY = new Mat(mImage.getHeight(), mImage.getWidth(), CvType.CV_8UC1,
+                        plane.getBuffer(), plane.getRowStride());
             }
+            return mY;
         }
 
+        private void copyPlane(Image.Plane plane, int w, int h, Mat dst) {
+            Mat src = new Mat(h, w, CvType.CV_8UC1, plane.getBuffer(), plane.getRowStride());
+            src.copyTo(dst);
+            src.release();
+        }
 
-        public JavaCamera2Frame(Image image) {
-            super();
-            mImage = image;
-            mRgba = new Mat();
-            mGray = new Mat();
+        // (Re)creates the I420 buffer and its plane views when the frame size changes
+        private void allocateI420(int w, int h) {
+            if (mI420.rows() == h + h / 2 && mI420.cols() == w)
+                return;
+            releaseI420Views();
+            mI420.create(h + h / 2, w, CvType.CV_8UC1);
+            int ySize = w * h;
+            int cSize = ySize / 4;
+            Mat flat = mI420.reshape(1, 1);
+            mI420Y = mI420.submat(0, h, 0, w);
+            Mat u = flat.colRange(ySize, ySize + cSize);
+            Mat v = flat.colRange(ySize + cSize, ySize + 2 * cSize);
+            mI420U = u.reshape(1, h / 2);
+            mI420V = v.reshape(1, h / 2);
+            u.release();
+            v.release();
+            flat.release();
         }
 
-        public void release() {
-            mRgba.release();
-            mGray.release();
+        private void releaseI420Views() {
+            if (mI420Y != null) {
+                mI420Y.release();
+                mI420U.release();
+                mI420V.release();
+                mI420Y = mI420U = mI420V = null;
+            }
         }
 
         private Image mImage;
         private Mat mRgba;
-        private Mat mGray;
+        private Mat mY;
+        private Mat mI420;
+        private Mat mI420Y;
+        private Mat mI420U;
+        private Mat mI420V;
+        private boolean mRgbaValid;
     };
 }
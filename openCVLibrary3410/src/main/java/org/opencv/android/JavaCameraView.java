@@ -1,6 +1,9 @@
 package org.opencv.android;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import android.content.Context;
 import android.graphics.ImageFormat;
@@ -26,17 +29,51 @@ import org.opencv.imgproc.Imgproc;
  * disconnectCamera - closes the camera and stops preview.
  * When frame is delivered via callback from Camera - it processed via OpenCV to be
  * converted to RGBA32 and then passed to the external callback for modifications if required.
+ *
+ * Preview frames are copied into a ring of preallocated slots and the callback buffer is
+ * handed back to the camera right away, so the camera never waits for the processing thread.
+ * The preview callback thread is the only producer and the processing thread the only
+ * consumer. Filled slots are queued by slot number in publication order; both sides take a
+ * slot out of the queue only by winning a CAS on the read index, so a slot is never handed
+ * to both. The slot being processed is out of the queue and is never written. What happens
+ * when processing falls behind is chosen with setFrameDeliveryPolicy().
+ *
+ * Teardown is serialized with the preview callback on this view's lock, so a late callback
+ * never writes into a released slot.
  */
 public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallback {
 
     private static final int MAGIC_TEXTURE_ID = 10;
     private static final String TAG = "JavaCameraView";
 
-    private byte mBuffer[];
+    /**
+     * LATEST_FRAME: the processing thread always takes the newest frame, older waiting
+     * frames are dropped; a frame arriving while the ring is full overwrites the oldest
+     * waiting one. FIFO: every frame is processed in order, frames arriving while the ring
+     * is full are dropped.
+     */
+    public enum FrameDeliveryPolicy { LATEST_FRAME, FIFO }
+
+    private static final int DEFAULT_FRAME_CHAIN_SIZE = 3;
+    // free slots are tracked in a long bit mask
+    private static final int MAX_FRAME_CHAIN_SIZE = 64;
+    private static final long PARK_TIMEOUT_NS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private byte mBuffers[][];
     private Mat[] mFrameChain;
-    private int mChainIdx = 0;
-    private Thread mThread;
-    private boolean mStopThread;
+    private int mFrameChainSize = DEFAULT_FRAME_CHAIN_SIZE;
+    private volatile FrameDeliveryPolicy mDeliveryPolicy = FrameDeliveryPolicy.LATEST_FRAME;
+    // slot numbers of the published frames, frame i in mQueue[i % size]; frames mReadIndex up to
+    // mWriteIndex are waiting. Entries are written by the producer before it publishes mWriteIndex.
+    private int[] mQueue;
+    private final AtomicLong mWriteIndex = new AtomicLong();
+    private final AtomicLong mReadIndex = new AtomicLong();
+    // slot the consumer processes or is about to claim, -1 when idle; set before the claiming CAS
+    private volatile int mProcessingSlot = -1;
+    private final AtomicLong mDroppedFrames = new AtomicLong();
+    private final AtomicLong mDeliveredFrames = new AtomicLong();
+    private volatile Thread mThread;
+    private volatile boolean mStopThread;
 
     protected Camera mCamera;
     protected JavaCameraFrame[] mCameraFrame;
@@ -66,16 +103,41 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         super(context, attrs);
     }
 
+    /**
+     * Sets the number of preallocated frame slots and camera callback buffers.
+     * Takes effect on the next camera connection.
+     * @param slots - at least 2: one being processed and one being filled; at most 64
+     */
+    public void setFrameChainSize(int slots) {
+        mFrameChainSize = Math.min(MAX_FRAME_CHAIN_SIZE, Math.max(2, slots));
+    }
+
+    public void setFrameDeliveryPolicy(FrameDeliveryPolicy policy) {
+        mDeliveryPolicy = policy;
+    }
+
+    /** Frames received from the camera that never reached onCameraFrame. */
+    public long getDroppedFrameCount() {
+        return mDroppedFrames.get();
+    }
+
+    /** Frames handed to onCameraFrame. */
+    public long getDeliveredFrameCount() {
+        return mDeliveredFrames.get();
+    }
+
     protected boolean initializeCamera(int width, int height) {
         Log.d(TAG, "Initialize java camera");
         boolean result = true;
         synchronized (this) {
             mCamera = null;
+            int openedIndex = -1;
 
             if (mCameraIndex == CAMERA_ID_ANY) {
                 Log.d(TAG, "Trying to open camera with old open()");
                 try {
                     mCamera = Camera.open();
+                    openedIndex = findCamera(Camera.CameraInfo.CAMERA_FACING_BACK);
                 }
                 catch (Exception e){
                     Log.e(TAG, "Camera is not available (in use or does not exist): " + e.getLocalizedMessage());
@@ -87,6 +149,7 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
                         Log.d(TAG, "Trying to open camera with new open(" + Integer.valueOf(camIdx) + ")");
                         try {
                             mCamera = Camera.open(camIdx);
+                            openedIndex = camIdx;
                             connected = true;
                         } catch (RuntimeException e) {
                             Log.e(TAG, "Camera #" + camIdx + "failed to open: " + e.getLocalizedMessage());
@@ -126,6 +189,7 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
                         Log.d(TAG, "Trying to open camera with new open(" + Integer.valueOf(localCameraIndex) + ")");
                         try {
                             mCamera = Camera.open(localCameraIndex);
+                            openedIndex = localCameraIndex;
                         } catch (RuntimeException e) {
                             Log.e(TAG, "Camera #" + localCameraIndex + "failed to open: " + e.getLocalizedMessage());
                         }
@@ -136,6 +200,14 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
             if (mCamera == null)
                 return false;
 
+            // the frames come as the sensor is mounted, clients need that to turn them upright
+            if (openedIndex >= 0) {
+                Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
+                Camera.getCameraInfo(openedIndex, cameraInfo);
+                mSensorOrientation = cameraInfo.orientation;
+                mFrontFacing = cameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT;
+            }
+
             /* Now set camera parameters */
             try {
                 Camera.Parameters params = mCamera.getParameters();
@@ -190,21 +262,24 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
                     int size = mFrameWidth * mFrameHeight;
                     size  = size * ImageFormat.getBitsPerPixel(params.getPreviewFormat()) / 8;
-                    mBuffer = new byte[size];
-
-                    mCamera.addCallbackBuffer(mBuffer);
+                    int slots = mFrameChainSize;
+                    mBuffers = new byte[slots][];
+                    mFrameChain = new Mat[slots];
+                    mCameraFrame = new JavaCameraFrame[slots];
+                    mQueue = new int[slots];
+                    for (int i = 0; i < slots; i++) {
+                        mBuffers[i] = new byte[size];
+                        mCamera.addCallbackBuffer(mBuffers[i]);
+                        mFrameChain[i] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
+                        mCameraFrame[i] = new JavaCameraFrame(mFrameChain[i], mFrameWidth, mFrameHeight);
+                    }
+                    mWriteIndex.set(0);
+                    mReadIndex.set(0);
+                    mProcessingSlot = -1;
                     mCamera.setPreviewCallbackWithBuffer(this);
 
-                    mFrameChain = new Mat[2];
-                    mFrameChain[0] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
-                    mFrameChain[1] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
-
                     AllocateCache();
 
-                    mCameraFrame = new JavaCameraFrame[2];
-                    mCameraFrame[0] = new JavaCameraFrame(mFrameChain[0], mFrameWidth, mFrameHeight);
-                    mCameraFrame[1] = new JavaCameraFrame(mFrameChain[1], mFrameWidth, mFrameHeight);
-
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
                         mSurfaceTexture = new SurfaceTexture(MAGIC_TEXTURE_ID);
                         mCamera.setPreviewTexture(mSurfaceTexture);
@@ -226,6 +301,17 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         return result;
     }
 
+    // Index of the first camera facing the given way, which is what Camera.open() opens
+    private static int findCamera(int facing) {
+        Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
+        for (int camIdx = 0; camIdx < Camera.getNumberOfCameras(); ++camIdx) {
+            Camera.getCameraInfo(camIdx, cameraInfo);
+            if (cameraInfo.facing == facing)
+                return camIdx;
+        }
+        return -1;
+    }
+
     protected void releaseCamera() {
         synchronized (this) {
             if (mCamera != null) {
@@ -235,19 +321,22 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
                 mCamera.release();
             }
             mCamera = null;
+            // a preview callback still in flight holds this lock, or finds no slots any more
             if (mFrameChain != null) {
-                mFrameChain[0].release();
-                mFrameChain[1].release();
+                for (Mat slot : mFrameChain)
+                    slot.release();
             }
             if (mCameraFrame != null) {
-                mCameraFrame[0].release();
-                mCameraFrame[1].release();
+                for (JavaCameraFrame frame : mCameraFrame)
+                    frame.release();
             }
+            mFrameChain = null;
+            mCameraFrame = null;
+            mQueue = null;
+            mBuffers = null;
         }
     }
 
-    private boolean mCameraFrameReady = false;
-
     @Override
     protected boolean connectCamera(int width, int height) {
 
@@ -259,8 +348,6 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         if (!initializeCamera(width, height))
             return false;
 
-        mCameraFrameReady = false;
-
         /* now we can start update thread */
         Log.d(TAG, "Starting processing thread");
         mStopThread = false;
@@ -279,9 +366,8 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         try {
             mStopThread = true;
             Log.d(TAG, "Notify thread");
-            synchronized (this) {
-                this.notify();
-            }
+            if (mThread != null)
+                LockSupport.unpark(mThread);
             Log.d(TAG, "Waiting for thread");
             if (mThread != null)
                 mThread.join();
@@ -293,31 +379,77 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
         /* Now release camera */
         releaseCamera();
-
-        mCameraFrameReady = false;
     }
 
     @Override
     public void onPreviewFrame(byte[] frame, Camera arg1) {
         if (BuildConfig.DEBUG)
             Log.d(TAG, "Preview Frame received. Frame size: " + frame.length);
+        // only taken by teardown otherwise, the processing thread never waits for it
         synchronized (this) {
-            mFrameChain[mChainIdx].put(0, 0, frame);
-            mCameraFrameReady = true;
-            this.notify();
+            Mat[] chain = mFrameChain;
+            if (chain == null)
+                return;
+            long write = mWriteIndex.get();
+            int slot = findFreeSlot(write);
+            if (slot < 0 && mDeliveryPolicy == FrameDeliveryPolicy.LATEST_FRAME)
+                slot = takeOldestWaiting(write);
+            if (slot >= 0) {
+                chain[slot].put(0, 0, frame);
+                mQueue[(int) (write % mQueue.length)] = slot;
+                mWriteIndex.set(write + 1);
+                Thread thread = mThread;
+                if (thread != null)
+                    LockSupport.unpark(thread);
+            } else {
+                // FIFO, and every slot is waiting for the processing thread
+                mDroppedFrames.incrementAndGet();
+            }
+            // the data is copied, the camera gets its buffer back at once
+            if (mCamera != null)
+                mCamera.addCallbackBuffer(frame);
         }
-        if (mCamera != null)
-            mCamera.addCallbackBuffer(mBuffer);
+    }
+
+    // A slot that is neither waiting nor being processed, or -1. The read index is read before
+    // the processing slot: a slot the consumer claims after that was still counted as waiting.
+    private int findFreeSlot(long write) {
+        long read = mReadIndex.get();
+        int processing = mProcessingSlot;
+        long used = 0;
+        for (long i = read; i < write; i++)
+            used |= 1L << mQueue[(int) (i % mQueue.length)];
+        if (processing >= 0)
+            used |= 1L << processing;
+        for (int slot = 0; slot < mQueue.length; slot++) {
+            if ((used & (1L << slot)) == 0)
+                return slot;
+        }
+        return -1;
+    }
+
+    // Drops the oldest waiting frame and returns its slot, or -1 if the consumer claimed it first
+    private int takeOldestWaiting(long write) {
+        long read = mReadIndex.get();
+        if (read == write)
+            return -1;
+        int slot = mQueue[(int) (read % mQueue.length)];
+        if (!mReadIndex.compareAndSet(read, read + 1))
+            return -1;
+        mDroppedFrames.incrementAndGet();
+        return slot;
     }
 
     private class JavaCameraFrame implements CvCameraViewFrame {
         @Override
         public Mat gray() {
-            return mYuvFrameData.submat(0, mHeight, 0, mWidth);
+            return mGray;
         }
 
         @Override
         public Mat rgba() {
+            if (mRgbaValid)
+                return mRgba;
             if (mPreviewFormat == ImageFormat.NV21)
                 Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
             else if (mPreviewFormat == ImageFormat.YV12)
@@ -325,6 +457,7 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
             else
                 throw new IllegalArgumentException("Preview Format can be NV21 or YV12");
 
+            mRgbaValid = true;
             return mRgba;
         }
 
@@ -333,15 +466,24 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
             mWidth = width;
             mHeight = height;
             mYuvFrameData = Yuv420sp;
+            mGray = mYuvFrameData.submat(0, mHeight, 0, mWidth);
             mRgba = new Mat();
         }
 
+        // Called when the slot holds a new frame, conversions of the previous one are stale
+        public void invalidate() {
+            mRgbaValid = false;
+        }
+
         public void release() {
+            mGray.release();
             mRgba.release();
         }
 
         private Mat mYuvFrameData;
+        private Mat mGray;
         private Mat mRgba;
+        private boolean mRgbaValid;
         private int mWidth;
         private int mHeight;
     };
@@ -350,29 +492,33 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
         @Override
         public void run() {
-            do {
-                boolean hasFrame = false;
-                synchronized (JavaCameraView.this) {
-                    try {
-                        while (!mCameraFrameReady && !mStopThread) {
-                            JavaCameraView.this.wait();
-                        }
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                    if (mCameraFrameReady)
-                    {
-                        mChainIdx = 1 - mChainIdx;
-                        mCameraFrameReady = false;
-                        hasFrame = true;
-                    }
+            while (!mStopThread) {
+                long read = mReadIndex.get();
+                long write = mWriteIndex.get();
+                if (write == read) {
+                    LockSupport.parkNanos(this, PARK_TIMEOUT_NS);
+                    continue;
                 }
 
-                if (!mStopThread && hasFrame) {
-                    if (!mFrameChain[1 - mChainIdx].empty())
-                        deliverAndDrawFrame(mCameraFrame[1 - mChainIdx]);
+                // LATEST_FRAME claims the newest frame and drops the older waiting ones with
+                // the same CAS, which hands their slots back to the producer
+                long claim = mDeliveryPolicy == FrameDeliveryPolicy.LATEST_FRAME ? write - 1 : read;
+                int slot = mQueue[(int) (claim % mQueue.length)];
+                mProcessingSlot = slot;
+                if (!mReadIndex.compareAndSet(read, claim + 1)) {
+                    // the producer took the oldest waiting frame meanwhile, look again
+                    mProcessingSlot = -1;
+                    continue;
                 }
-            } while (!mStopThread);
+                mDroppedFrames.addAndGet(claim - read);
+
+                if (!mFrameChain[slot].empty()) {
+                    mCameraFrame[slot].invalidate();
+                    deliverAndDrawFrame(mCameraFrame[slot]);
+                    mDeliveredFrames.incrementAndGet();
+                }
+                mProcessingSlot = -1;
+            }
             Log.d(TAG, "Finish processing thread");
         }
     }